@@ -0,0 +1,39 @@
+-- Procedures for loading every menu at a restaurant in one call each,
+-- used by DBUtil.getMenuTimesForRestaurant and DBUtil.getMenuItemsForRestaurant.
+-- They return the same rows as GetMenuTimes and GetMenuItemByMenuId,
+-- for all of a restaurant's menus at once, with the menuID on every row.
+--
+-- Without them the server still works, it logs the failed call and loads
+-- each menu with GetMenuTimes and GetMenuItemByMenuId instead.
+--
+-- Run against the AutoGarcon database:
+--     mysql -u [user] -p AutoGarcon < sql/01_menu_bulk_loading.sql
+
+USE AutoGarcon;
+
+DROP PROCEDURE IF EXISTS GetMenuTimesByRestaurant;
+DROP PROCEDURE IF EXISTS GetMenuItemsByRestaurant;
+
+DELIMITER //
+
+CREATE PROCEDURE GetMenuTimesByRestaurant( IN rID INT )
+BEGIN
+    SELECT mt.menuID, mt.startTime, mt.endTime
+    FROM MenuTimes mt
+    JOIN Menus m ON m.menuID = mt.menuID
+    WHERE m.restaurantID = rID
+    ORDER BY mt.menuID, mt.startTime;
+END //
+
+CREATE PROCEDURE GetMenuItemsByRestaurant( IN rID INT )
+BEGIN
+    SELECT mc.menuID, mi.itemID, mi.itemName, mi.category, mi.description,
+        mi.price, mi.calories, mi.meat, mi.dairy, mi.gluten, mi.nuts, mi.soy
+    FROM MenuItems mi
+    JOIN MenuContents mc ON mc.itemID = mi.itemID
+    JOIN Menus m ON m.menuID = mc.menuID
+    WHERE m.restaurantID = rID
+    ORDER BY mc.menuID, mi.itemID;
+END //
+
+DELIMITER ;
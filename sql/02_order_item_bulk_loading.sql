@@ -0,0 +1,41 @@
+-- Procedures for loading the items of many orders in one call,
+-- used by DBUtil.getOrderItemsForRestaurant and DBUtil.getOrderItemsWithin24Hours.
+-- They return the same rows as GetAllOrderItemsFromOrder, for the same orders
+-- GetOrdersForRestaurant and GetOrdersInPast24Hours return, with the orderID on every row.
+--
+-- Without them the server still works, it logs the failed call and loads
+-- each order's items with GetAllOrderItemsFromOrder instead.
+--
+-- Run against the AutoGarcon database:
+--     mysql -u [user] -p AutoGarcon < sql/02_order_item_bulk_loading.sql
+
+USE AutoGarcon;
+
+DROP PROCEDURE IF EXISTS GetOrderItemsByRestaurant;
+DROP PROCEDURE IF EXISTS GetOrderItemsInPast24Hours;
+
+DELIMITER //
+
+CREATE PROCEDURE GetOrderItemsByRestaurant( IN rID INT )
+BEGIN
+    SELECT oi.orderID, oi.orderItemID, oi.itemID, oi.quantity, oi.comments, mi.price
+    FROM OrderItems oi
+    JOIN Orders o ON o.orderID = oi.orderID
+    JOIN RestaurantTables rt ON rt.tableID = o.tableID
+    JOIN MenuItems mi ON mi.itemID = oi.itemID
+    WHERE rt.restaurantID = rID
+    ORDER BY oi.orderID, oi.orderItemID;
+END //
+
+CREATE PROCEDURE GetOrderItemsInPast24Hours( IN uID INT )
+BEGIN
+    SELECT oi.orderID, oi.orderItemID, oi.itemID, oi.quantity, oi.comments, mi.price
+    FROM OrderItems oi
+    JOIN Orders o ON o.orderID = oi.orderID
+    JOIN MenuItems mi ON mi.itemID = oi.itemID
+    WHERE o.userID = uID
+        AND o.orderTime >= NOW() - INTERVAL 1 DAY
+    ORDER BY oi.orderID, oi.orderItemID;
+END //
+
+DELIMITER ;
@@ -0,0 +1,36 @@
+-- The submission handle each queued order was saved under, used by DBUtil.saveOrders
+-- so an order that was committed but not yet marked finished in the submissions
+-- journal is not saved a second time when the queue retries it after a restart.
+--
+-- Without them the server still works, it logs once that the procedures are missing
+-- and saves queued orders without checking their handle.
+--
+-- Run once against the AutoGarcon database, the ALTER TABLE fails if it is run again:
+--     mysql -u [user] -p AutoGarcon < sql/03_order_submission_handles.sql
+
+USE AutoGarcon;
+
+ALTER TABLE Orders
+    ADD COLUMN submissionHandle CHAR(36) NULL,
+    ADD UNIQUE KEY uniqueSubmissionHandle ( submissionHandle );
+
+DROP PROCEDURE IF EXISTS GetOrderBySubmission;
+DROP PROCEDURE IF EXISTS SetOrderSubmission;
+
+DELIMITER //
+
+CREATE PROCEDURE GetOrderBySubmission( IN handle CHAR(36) )
+BEGIN
+    SELECT orderID
+    FROM Orders
+    WHERE submissionHandle = handle;
+END //
+
+CREATE PROCEDURE SetOrderSubmission( IN oID INT, IN handle CHAR(36) )
+BEGIN
+    UPDATE Orders
+    SET submissionHandle = handle
+    WHERE orderID = oID;
+END //
+
+DELIMITER ;
@@ -0,0 +1,28 @@
+-- The time zone each restaurant's menu times are in, an id like America/Chicago.
+-- Saved by DBUtil.saveRestaurantTimeZone when a restaurant is added, and read from
+-- the timeZone column of the restaurant rows by Restaurant.readTimeZone.
+-- Procedures that list their columns, instead of selecting r.*, need timeZone added.
+--
+-- Without them restaurants use the server's zone, and adding a restaurant
+-- with a timeZone answers 500 after saving the rest of the restaurant.
+--
+-- Run once against the AutoGarcon database, the ALTER TABLE fails if it is run again:
+--     mysql -u [user] -p AutoGarcon < sql/04_restaurant_time_zones.sql
+
+USE AutoGarcon;
+
+ALTER TABLE Restaurants
+    ADD COLUMN timeZone VARCHAR(64) NULL;
+
+DROP PROCEDURE IF EXISTS SetRestaurantTimeZone;
+
+DELIMITER //
+
+CREATE PROCEDURE SetRestaurantTimeZone( IN rID INT, IN tz VARCHAR(64) )
+BEGIN
+    UPDATE Restaurants
+    SET timeZone = tz
+    WHERE restaurantID = rID;
+END //
+
+DELIMITER ;
@@ -0,0 +1,36 @@
+-- A procedure for adding every item of an order in one call,
+-- used by DBUtil.saveOrders instead of one AddItemToOrder call per item.
+-- The items are sent as one JSON array, each element holding menuItemID, menuID,
+-- quantity and comments, and each is added with AddItemToOrder, so the rows
+-- written and the checks made are the same as before.
+--
+-- Without it the server still works, it logs once that the procedure is missing
+-- and calls AddItemToOrder for each item instead.
+--
+-- Needs MySQL 5.7.8 or newer for the JSON type. Run against the AutoGarcon database:
+--     mysql -u [user] -p AutoGarcon < sql/05_order_item_bulk_saving.sql
+
+USE AutoGarcon;
+
+DROP PROCEDURE IF EXISTS AddItemsToOrder;
+
+DELIMITER //
+
+CREATE PROCEDURE AddItemsToOrder( IN orderIDToAddTo INT, IN items JSON )
+BEGIN
+    DECLARE i INT DEFAULT 0;
+    DECLARE itemCount INT DEFAULT JSON_LENGTH( items );
+
+    WHILE i < itemCount DO
+        CALL AddItemToOrder(
+            orderIDToAddTo,
+            JSON_EXTRACT( items, CONCAT( '$[', i, '].menuItemID' ) ),
+            JSON_EXTRACT( items, CONCAT( '$[', i, '].menuID' ) ),
+            JSON_EXTRACT( items, CONCAT( '$[', i, '].quantity' ) ),
+            JSON_UNQUOTE( JSON_EXTRACT( items, CONCAT( '$[', i, '].comments' ) ) )
+        );
+        SET i = i + 1;
+    END WHILE;
+END //
+
+DELIMITER ;
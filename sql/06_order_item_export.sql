@@ -0,0 +1,31 @@
+-- A procedure for reading a restaurant's order items a page at a time,
+-- used by DBUtil.exportOrderItems for /api/restaurant/:restaurantid/order/export.
+-- Pages are found by orderItemID rather than by offset, so every page is read
+-- as fast as the first, and the connection goes back to the pool between pages.
+-- It returns the same columns as GetOrderItemsByRestaurant.
+--
+-- The export needs it, without it the export route answers 500.
+--
+-- Run against the AutoGarcon database:
+--     mysql -u [user] -p AutoGarcon < sql/06_order_item_export.sql
+
+USE AutoGarcon;
+
+DROP PROCEDURE IF EXISTS GetOrderItemsPage;
+
+DELIMITER //
+
+CREATE PROCEDURE GetOrderItemsPage( IN rID INT, IN afterItemID INT, IN pageSize INT )
+BEGIN
+    SELECT oi.orderID, oi.orderItemID, oi.itemID, oi.quantity, oi.comments, mi.price
+    FROM OrderItems oi
+    JOIN Orders o ON o.orderID = oi.orderID
+    JOIN RestaurantTables rt ON rt.tableID = o.tableID
+    JOIN MenuItems mi ON mi.itemID = oi.itemID
+    WHERE rt.restaurantID = rID
+        AND oi.orderItemID > afterItemID
+    ORDER BY oi.orderItemID
+    LIMIT pageSize;
+END //
+
+DELIMITER ;
@@ -0,0 +1,181 @@
+package AutoGarcon;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import spark.Request;
+import spark.Response;
+
+
+/**
+ * CachedJson: A response body that was rendered to JSON once and is sent many times.
+ *
+ * Cached menus and restaurants keep one of these next to the objects,
+ * so a request for them copies bytes to the response instead of running
+ * the objects through Gson again. The gzipped bytes are made the first time
+ * a client that accepts gzip asks for them, and kept too.
+ *
+ * Each body gets a strong ETag from a hash of its bytes, so a client that
+ * sends it back in If-None-Match is answered 304 with no body, as long as
+ * the cached response has not changed. The gzipped body is a different
+ * representation, so its ETag has a "-gzip" suffix. Responses carry
+ * Cache-Control: no-cache, so clients always check back, unless
+ * RESPONSE_MAX_AGE_SECONDS lets them reuse a response for a while first.
+ */
+public class CachedJson {
+
+    private static final Gson gson = JsonTransformer.gson();
+    private static final int MAX_AGE_SECONDS = Integer.getInteger("RESPONSE_MAX_AGE_SECONDS", 0);
+    private static final String CACHE_CONTROL = MAX_AGE_SECONDS > 0 ? 
+        "public, max-age=" + MAX_AGE_SECONDS : "no-cache";
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    private final byte[] json;
+    private final String etag;
+    private volatile byte[] gzip;
+
+    private CachedJson( String json ){
+        this.json = json.getBytes( StandardCharsets.UTF_8 );
+        this.etag = tagFor( this.json );
+    }
+
+    /**
+     * tagFor: the part of the ETag that identifies a body,
+     * the first 16 bytes of its SHA-256 hash in hex.
+     */
+    private static String tagFor( byte[] body ){
+        try {
+            byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( body );
+            StringBuilder tag = new StringBuilder( 32 );
+            for( int i = 0; i < 16; i++ ){
+                tag.append( String.format( "%02x", hash[i] ) );
+            }
+            return tag.toString();
+        } catch( NoSuchAlgorithmException e ){
+            //every java runtime has SHA-256.
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * of: render an object to JSON.
+     * @param model - the object to render, as JsonTransformer would.
+     */
+    public static CachedJson of( Object model ){
+        return new CachedJson( gson.toJson( model ) );
+    }
+
+    /**
+     * of: render a JSON tree built by the caller.
+     * @param tree - the JSON to send.
+     */
+    public static CachedJson of( JsonElement tree ){
+        return new CachedJson( gson.toJson( tree ) );
+    }
+
+    public byte[] getJson(){
+        return this.json;
+    }
+
+    /**
+     * getETag: the ETag header for the body, gzipped or not.
+     */
+    public String getETag( boolean gzipped ){
+        return "\"" + this.etag + ( gzipped ? GZIP_SUFFIX : "" ) + "\"";
+    }
+
+    /**
+     * matches: check if an If-None-Match header names this body.
+     * Either representation matches, the client already has the same JSON.
+     * @param ifNoneMatch - the header, or null if there was none.
+     */
+    public boolean matches( String ifNoneMatch ){
+        if( ifNoneMatch == null ){
+            return false;
+        }
+        for( String tag : ifNoneMatch.split(",") ){
+            tag = tag.trim();
+            if( tag.equals("*") ){
+                return true;
+            }
+            if( tag.startsWith("W/") ){
+                tag = tag.substring( 2 );
+            }
+            tag = tag.replace( "\"", "" );
+            if( tag.endsWith( GZIP_SUFFIX ) ){
+                tag = tag.substring( 0, tag.length() - GZIP_SUFFIX.length() );
+            }
+            if( tag.equals( this.etag ) ){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * getGzip: the JSON bytes, gzipped.
+     * Two threads may both compress the first time, which is harmless.
+     */
+    public byte[] getGzip(){
+        byte[] compressed = this.gzip;
+        if( compressed == null ){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( this.json.length / 4 + 64 );
+            try( GZIPOutputStream out = new GZIPOutputStream( bytes ) ){
+                out.write( this.json );
+            } catch( IOException e ){
+                //writing to memory does not fail.
+                throw new IllegalStateException( e );
+            }
+            compressed = bytes.toByteArray();
+            this.gzip = compressed;
+        }
+        return compressed;
+    }
+
+    /**
+     * write: send the JSON as the whole response, gzipped if the client accepts it,
+     * or 304 if the client's If-None-Match already names it.
+     * The response is committed afterwards, so Spark does not write a body of its own.
+     * @param req - the request being answered.
+     * @param res - the response to write to.
+     * @return an empty body for Spark, which it does not send.
+     */
+    public Object write( Request req, Response res ){
+        HttpServletResponse raw = res.raw();
+        String acceptEncoding = req.headers("Accept-Encoding");
+        boolean gzipped = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        raw.setHeader( "ETag", getETag( gzipped ) );
+        raw.setHeader( "Cache-Control", CACHE_CONTROL );
+        raw.setHeader( "Vary", "Accept-Encoding" );
+
+        try {
+            if( matches( req.headers("If-None-Match") ) ){
+                raw.setStatus( 304 );
+                raw.flushBuffer();
+                return "";
+            }
+
+            byte[] body = gzipped ? getGzip() : this.json;
+            raw.setStatus( 200 );
+            raw.setContentType( "application/json; charset=utf-8" );
+            if( gzipped ){
+                raw.setHeader( "Content-Encoding", "gzip" );
+            }
+            raw.setContentLength( body.length );
+
+            OutputStream out = raw.getOutputStream();
+            out.write( body );
+            out.flush();
+        } catch( IOException ioe ){
+            //the client went away, there is nobody to tell.
+        }
+        return "";
+    }
+}
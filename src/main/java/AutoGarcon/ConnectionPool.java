@@ -0,0 +1,377 @@
+package AutoGarcon;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * ConnectionPool: A bounded pool of database connections.
+ *
+ * Connections handed out by borrow() are proxies, calling close()
+ * on them returns the physical connection to the pool instead of closing it.
+ * So use them with try-with-resources:
+ *
+ *      try( Connection c = pool.borrow() ){ ... }
+ *
+ * Pool settings are read from System Properties, all are optional:
+ *  DB_POOL_MIN_SIZE - connections to keep open even when idle.
+ *  DB_POOL_MAX_SIZE - maximum number of open connections.
+ *  DB_POOL_ACQUIRE_TIMEOUT_MS - how long borrow() waits for a free connection.
+ *  DB_POOL_IDLE_TIMEOUT_MS - idle connections older than this are closed.
+ *  DB_POOL_LEAK_THRESHOLD_MS - connections held longer than this are reported as leaks.
+ */
+public class ConnectionPool {
+
+    /**
+     * ConnectionFactory: opens a new physical connection for the pool.
+     */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_PERIOD_MS = 30000;
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+
+    private final Semaphore permits;
+    private final ArrayDeque<PooledEntry> idle;
+    private final Map<PooledEntry, Boolean> borrowed;
+    private final AtomicInteger openCount;
+    private final ScheduledExecutorService housekeeper;
+
+    /**
+     * ConnectionPool: create a pool using the DB_POOL_* System Properties.
+     * @param factory - opens physical connections to the database.
+     */
+    public ConnectionPool( ConnectionFactory factory ){
+        this(
+            factory,
+            Integer.getInteger("DB_POOL_MIN_SIZE", 2),
+            Integer.getInteger("DB_POOL_MAX_SIZE", 10),
+            Long.getLong("DB_POOL_ACQUIRE_TIMEOUT_MS", 5000L),
+            Long.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600000L),
+            Long.getLong("DB_POOL_LEAK_THRESHOLD_MS", 30000L)
+        );
+    }
+
+    /**
+     * ConnectionPool: create a pool with explicit settings.
+     * @param factory - opens physical connections to the database.
+     * @param minSize - connections to keep open even when idle.
+     * @param maxSize - maximum number of open connections.
+     * @param acquireTimeoutMs - how long borrow() waits for a free connection.
+     * @param idleTimeoutMs - idle connections older than this are closed.
+     * @param leakThresholdMs - connections held longer than this are reported, 0 disables.
+     */
+    public ConnectionPool( ConnectionFactory factory, int minSize, int maxSize,
+            long acquireTimeoutMs, long idleTimeoutMs, long leakThresholdMs ){
+        this.factory = factory;
+        this.maxSize = Math.max( 1, maxSize );
+        this.minSize = Math.max( 0, Math.min( minSize, this.maxSize ) );
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+
+        this.permits = new Semaphore( this.maxSize, true );
+        this.idle = new ArrayDeque<PooledEntry>();
+        this.borrowed = new ConcurrentHashMap<PooledEntry, Boolean>();
+        this.openCount = new AtomicInteger();
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "db-pool-housekeeper" );
+            t.setDaemon( true );
+            return t;
+        });
+        this.housekeeper.scheduleWithFixedDelay( this::housekeep,
+                HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * fill: open connections until the pool holds at least minSize.
+     * Each connection is opened while holding a permit, same as borrow(),
+     * so filling never pushes the pool past maxSize. Stops early if every
+     * permit is taken, the pool is busy and does not need topping up.
+     * @throws SQLException if a connection could not be opened.
+     */
+    public void fill() throws SQLException {
+        while( this.openCount.get() < this.minSize ){
+            if( !this.permits.tryAcquire() ){
+                return;
+            }
+            try {
+                //a borrow may have opened one while we waited for the permit.
+                if( this.openCount.get() >= this.minSize ){
+                    return;
+                }
+                PooledEntry entry = new PooledEntry( this.factory.open() );
+                this.openCount.incrementAndGet();
+                synchronized( this.idle ){
+                    this.idle.addLast( entry );
+                }
+            } finally {
+                this.permits.release();
+            }
+        }
+    }
+
+    /**
+     * borrow: get a connection from the pool, opening a new one if needed.
+     * @return a Connection that goes back to the pool when closed.
+     * @throws SQLTransientConnectionException if no connection is free within the acquire timeout,
+     * trying again later may work.
+     * @throws SQLException if a new connection could not be opened.
+     */
+    public Connection borrow() throws SQLException {
+        boolean acquired;
+        try {
+            acquired = this.permits.tryAcquire( this.acquireTimeoutMs, TimeUnit.MILLISECONDS );
+        } catch( InterruptedException e ){
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException( "Interrupted while waiting for a database connection." );
+        }
+        if( !acquired ){
+            throw new SQLTransientConnectionException( String.format(
+                    "Timed out after %dms waiting for a database connection. " +
+                    "%d of %d connections are in use.",
+                    this.acquireTimeoutMs, this.borrowed.size(), this.maxSize ) );
+        }
+
+        try {
+            PooledEntry entry = takeValidIdle();
+            if( entry == null ){
+                entry = new PooledEntry( this.factory.open() );
+                this.openCount.incrementAndGet();
+            }
+            entry.borrowedAt = System.currentTimeMillis();
+            entry.leakReported = false;
+            entry.borrowSite = this.leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+            this.borrowed.put( entry, Boolean.TRUE );
+            return entry.newHandle();
+        } catch( SQLException | RuntimeException e ){
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * takeValidIdle: pop the most recently used idle connection
+     * that still passes validation, closing any that fail.
+     * @return a valid idle connection, or null if there are none.
+     */
+    private PooledEntry takeValidIdle(){
+        while( true ){
+            PooledEntry entry;
+            synchronized( this.idle ){
+                entry = this.idle.pollFirst();
+            }
+            if( entry == null ){
+                return null;
+            }
+            if( isValid( entry.physical ) ){
+                return entry;
+            }
+            discard( entry );
+        }
+    }
+
+    /**
+     * release: return a borrowed connection to the pool.
+     * Called by the connection handle's close().
+     */
+    private void release( PooledEntry entry ){
+        this.borrowed.remove( entry );
+        try {
+            if( entry.physical.isClosed() ){
+                discard( entry );
+                return;
+            }
+            if( !entry.physical.getAutoCommit() ){
+                entry.physical.rollback();
+                entry.physical.setAutoCommit( true );
+            }
+            entry.lastUsed = System.currentTimeMillis();
+            synchronized( this.idle ){
+                this.idle.addFirst( entry );
+            }
+        } catch( SQLException e ){
+            System.out.printf("Failed to reset a pooled connection, discarding it.\n" +
+                    "Exception: %s\n", e.toString() );
+            discard( entry );
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    private boolean isValid( Connection c ){
+        try {
+            return c.isValid( VALIDATION_TIMEOUT_SECONDS );
+        } catch( SQLException e ){
+            return false;
+        }
+    }
+
+    private void discard( PooledEntry entry ){
+        this.openCount.decrementAndGet();
+        try {
+            entry.physical.close();
+        } catch( SQLException e ){
+            //nothing left to do with a broken connection.
+        }
+    }
+
+    /**
+     * housekeep: close idle connections past the idle timeout,
+     * top the pool back up to minSize, and report leaked connections.
+     */
+    private void housekeep(){
+        long now = System.currentTimeMillis();
+
+        synchronized( this.idle ){
+            Iterator<PooledEntry> it = this.idle.descendingIterator();
+            while( it.hasNext() && this.openCount.get() > this.minSize ){
+                PooledEntry entry = it.next();
+                if( now - entry.lastUsed > this.idleTimeoutMs ){
+                    it.remove();
+                    discard( entry );
+                }
+            }
+        }
+
+        try {
+            fill();
+        } catch( SQLException e ){
+            System.out.printf("Failed to refill the connection pool.\n" +
+                    "Exception: %s\n", e.toString() );
+        }
+
+        if( this.leakThresholdMs > 0 ){
+            for( PooledEntry entry : this.borrowed.keySet() ){
+                long heldFor = now - entry.borrowedAt;
+                if( heldFor > this.leakThresholdMs && !entry.leakReported ){
+                    entry.leakReported = true;
+                    System.out.printf("Possible connection leak: connection held for %dms.\n", heldFor );
+                    if( entry.borrowSite != null ){
+                        entry.borrowSite.printStackTrace( System.out );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * shutdown: close every idle connection and stop housekeeping.
+     * Borrowed connections are closed when they are returned.
+     */
+    public void shutdown(){
+        this.housekeeper.shutdownNow();
+        synchronized( this.idle ){
+            while( !this.idle.isEmpty() ){
+                discard( this.idle.pollFirst() );
+            }
+        }
+    }
+
+    public int getOpenCount(){
+        return this.openCount.get();
+    }
+
+    public int getBorrowedCount(){
+        return this.borrowed.size();
+    }
+
+    public int getIdleCount(){
+        synchronized( this.idle ){
+            return this.idle.size();
+        }
+    }
+
+
+    /**
+     * PooledEntry: a physical connection along with its bookkeeping.
+     */
+    private class PooledEntry {
+        final Connection physical;
+        volatile long lastUsed;
+        volatile long borrowedAt;
+        volatile boolean leakReported;
+        volatile Throwable borrowSite;
+
+        PooledEntry( Connection physical ){
+            this.physical = physical;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        Connection newHandle(){
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{ Connection.class },
+                    new Handle( this )
+            );
+        }
+    }
+
+    /**
+     * Handle: the proxy behind a borrowed connection.
+     * close() returns the connection to the pool, and any use
+     * after that fails instead of touching a connection someone else holds.
+     */
+    private class Handle implements InvocationHandler {
+        private final PooledEntry entry;
+        private boolean closed;
+
+        Handle( PooledEntry entry ){
+            this.entry = entry;
+        }
+
+        @Override
+        public synchronized Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            if( name.equals("close") ){
+                if( !this.closed ){
+                    this.closed = true;
+                    release( this.entry );
+                }
+                return null;
+            }
+            if( name.equals("isClosed") ){
+                return this.closed || this.entry.physical.isClosed();
+            }
+            if( name.equals("equals") ){
+                return proxy == args[0];
+            }
+            if( name.equals("hashCode") ){
+                return System.identityHashCode( proxy );
+            }
+            if( name.equals("toString") ){
+                return "Pooled" + this.entry.physical.toString();
+            }
+            if( this.closed ){
+                throw new SQLException( "Connection has already been returned to the pool." );
+            }
+            try {
+                return method.invoke( this.entry.physical, args );
+            } catch( InvocationTargetException e ){
+                throw e.getCause();
+            }
+        }
+    }
+}
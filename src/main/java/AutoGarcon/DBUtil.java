@@ -1,8 +1,18 @@
 package AutoGarcon; 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.sql.*; 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays; 
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
 
 /**
  * DBUtil: Utility functions for interacting with the datbase.
@@ -15,13 +25,29 @@ import java.util.Arrays;
  * HOST_NAME is used to determine if the program is running on the host.
  *
  * connection string = protocol//user:password@[hosts][/database][?properties]
- * Note that the connection obj is not thread safe. So for now we will create 
- * a new one everytime. 
+ * Note that the connection obj is not thread safe. So every call borrows
+ * its own connection from the pool, and gives it back when it is done.
+ * See ConnectionPool for the DB_POOL_* settings.
+ *
+ * Queries take a RowMapper that turns each row into an object while the
+ * statement is open, so the connection is back in the pool before the caller
+ * ever sees the results.
  */
 public class DBUtil {
 
     public final static String HOST_URL = "auto-garcon-database.cd4hzqa9i8mi.us-east-1.rds.amazonaws.com";
-    private Connection connection;
+    private static ConnectionPool pool;
+
+    //MySQL's error code for calling a procedure that does not exist.
+    private static final int NO_SUCH_PROCEDURE = 1305;
+    //cleared if the procedures from sql/03_order_submission_handles.sql are missing.
+    private static volatile boolean submissionHandlesInstalled = true;
+    //cleared if the procedure from sql/05_order_item_bulk_saving.sql is missing.
+    private static volatile boolean bulkItemsInstalled = true;
+
+    private static final int EXPORT_PAGE_SIZE = Math.max( 1, Integer.getInteger("EXPORT_PAGE_SIZE", 1000) );
+    //exports running at once, each one reads from the database until the client has every page.
+    private static final Semaphore exports = new Semaphore( Integer.getInteger("EXPORT_MAX_CONCURRENT", 4) );
 
 
 
@@ -29,26 +55,25 @@ public class DBUtil {
      * getTable: gets the table info by table number and restaurant id. 
      * @param restaurantID
      * @param tableNum
-     * @return SQL result containing the saved table information. 
+     * @param mapper - turns the table row into an object. 
+     * @return the mapped table, or null if there is no such table. 
      */
-    public static ResultSet getTable( int restaurantID, int tableNum ){
-
-        ResultSet result = null;
-        Connection c = connectToDB();
-        Statement stmt;
-
-        String query = String.format("SELECT * FROM AutoGarcon.RestaurantTables " + 
-            "WHERE restaurantID = %d AND tableNumber = %d;", restaurantID, tableNum ); 
-        try{
-            stmt = c.createStatement(); 
-            result = stmt.executeQuery(query);  
-            result.beforeFirst(); 
-            return result; 
+    public static <T> T getTable( int restaurantID, int tableNum, RowMapper<T> mapper ){
+
+        String query = "SELECT * FROM AutoGarcon.RestaurantTables " + 
+            "WHERE restaurantID = ? AND tableNumber = ?;"; 
+        try( Connection c = getConnection();
+             PreparedStatement stmt = c.prepareStatement(query) ){
+            stmt.setInt( 1, restaurantID );
+            stmt.setInt( 2, tableNum );
+            try( ResultSet result = stmt.executeQuery() ){
+                return result.next() ? mapper.map( result ) : null;
+            }
         } catch( SQLException e ){
             System.out.printf("Failed to query for table. restaurantID %d .\n" +
                     "Exception: %s\n", restaurantID, e.toString() );
         }
-        return result;
+        return null;
     }
 
     /**
@@ -59,17 +84,12 @@ public class DBUtil {
      */
     public static boolean createRestaurantTable( int restaurantID, int tableNum ){
 
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
-
-        try{
-            stmt = c.prepareCall("{call CreateRestaurantTable(?, ?, ?)}"); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call CreateRestaurantTable(?, ?, ?)}") ){
             stmt.setNString("alexaID", null );
             stmt.setInt("tableNumber", tableNum);
             stmt.setInt("restaurantID", restaurantID);
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            stmt.executeQuery().close();
 
         } catch( SQLException e ){
             System.out.printf("Failed to exectue CreateRestaurantTable stored procedure.\n" +
@@ -84,50 +104,38 @@ public class DBUtil {
     /**
      * getTable: gets the table info by alexaID. 
      * @param alexaID - the alexaID to look up. 
-     * @return SQL result containing the saved table information. 
+     * @param mapper - turns the table row into an object. 
+     * @return the mapped table, or null if there is no such table. 
      */
-    public static ResultSet getTable( String alexaID ){
-
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> T getTable( String alexaID, RowMapper<T> mapper ){
 
-        try{
-            stmt = c.prepareCall("{call GetTableByAlexaID(?)}"); 
-            stmt.setNString("aID", alexaID ); 
-
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
-            return result; 
+        try { 
+            return first( query( "{call GetTableByAlexaID(?)}", 
+                    stmt -> stmt.setNString("aID", alexaID ), mapper ) );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue getTablesByAlexaID stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-
-        return result;
+        return null;
     }
 
 
     /**
      * getAllTables: Query the database for all of the tables at a particular restaurant. 
      * @param restaurantID
-     * @return the query results. 
+     * @param mapper - turns each table row into an object. 
+     * @return the mapped tables. 
      */
-    public static ResultSet getAllTables( int restaurantID ){
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
+    public static <T> ArrayList<T> getAllTables( int restaurantID, RowMapper<T> mapper ){
 
-        try {
-            stmt = c.prepareCall("{call GetAllTablesByRestaurant(?)}");
-            stmt.setInt("rID", restaurantID);
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+        try { 
+            return query( "{call GetAllTablesByRestaurant(?)}", 
+                    stmt -> stmt.setInt("rID", restaurantID), mapper );
         } catch( SQLException e ){
             System.out.printf("Failed to query for tables on restaurantID. \n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
 
@@ -138,16 +146,12 @@ public class DBUtil {
      */
     public static boolean setAlexaIDForTable( int tableID, String alexaID ){
 
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
-
-        try{
-            stmt = c.prepareCall("{call RegisterAlexaID(?, ?)}"); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call RegisterAlexaID(?, ?)}") ){
             stmt.setNString("aID", alexaID); 
             stmt.setInt("tID", tableID); 
             System.out.printf("tableID: %d, alexaID: %s\n", tableID, alexaID);  
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true; 
         }
         catch( SQLException e ){
@@ -161,164 +165,114 @@ public class DBUtil {
     /**
      * getMenu: Gets all the menus offered by a restaurant.
      * @param restaurantID the id of the restaurant.
-     * @return SQL result set containing menu data.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @param mapper turns each menu row into an object.
+     * @return the mapped menus.
      */
-    public static ResultSet getMenus( int restaurantID ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> ArrayList<T> getMenus( int restaurantID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetMenusByRestaurantId(?)}" ); 
-            stmt.setInt( "id", restaurantID );  
-            
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            return query( "{call GetMenusByRestaurantId(?)}", 
+                    stmt -> stmt.setInt( "id", restaurantID ), mapper );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetMenusByRestaurantId stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
     /**
      * getAvailableMenus: Gets all the menus offered by a restaurant at the current time
      * @param restaurantID the id of the restaurant.
      * @param curTime current time in integer form
-     * @return SQL result set containing menu data.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @param mapper turns each menu row into an object.
+     * @return the mapped menus.
      */
-    public static ResultSet getAvailableMenus( int restaurantID, int curTime ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> ArrayList<T> getAvailableMenus( int restaurantID, int curTime, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetAccessibleMenus(?, ?)}" ); 
-            stmt.setInt( "rID", restaurantID );
-            stmt.setInt( "currentTime", curTime);
-            
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            return query( "{call GetAccessibleMenus(?, ?)}", stmt -> {
+                stmt.setInt( "rID", restaurantID );
+                stmt.setInt( "currentTime", curTime);
+            }, mapper );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetMenusByRestaurantId stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
     /**
      * getOrder: Gets all off the fields for an order by an ID.
      * @param orderID the id of the order.
-     * @return SQL result set containing order data.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @param mapper turns the order row into an object.
+     * @return the mapped order, or null if there is no such order.
      */
-    public static ResultSet getOrder( int orderID ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> T getOrder( int orderID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetOrderByID(?)}" ); 
-            stmt.setInt( "oID", orderID );  
-            
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            return first( query( "{call GetOrderByID(?)}", 
+                    stmt -> stmt.setInt( "oID", orderID ), mapper ) );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetOrderByID stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return null;
     }
 
     /**
      * getOrder: Gets all off the fields for all orders a user made within 24 hours.
      * @param userID the id of the user.
-     * @return SQL result set containing order data.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @param mapper turns each order row into an object.
+     * @return the mapped orders.
      */
-    public static ResultSet getOrdersWithin24Hours( int userID ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> ArrayList<T> getOrdersWithin24Hours( int userID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetOrdersInPast24Hours(?)}" ); 
-            stmt.setInt( "uID", userID );  
-            
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            return query( "{call GetOrdersInPast24Hours(?)}", 
+                    stmt -> stmt.setInt( "uID", userID ), mapper );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetOrderByID stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
     /**
      * getOrdersForRestaurant: Gets all off the fields for every order at a restaurant.
      * @param restaurantID the id of the restaurant.
-     * @return SQL result set containing order data.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @param mapper turns each order row into an object.
+     * @return the mapped orders.
      */
-    public static ResultSet getOrdersForRestaurant( int restaurantID ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
+    public static <T> ArrayList<T> getOrdersForRestaurant( int restaurantID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetOrdersForRestaurant(?)}" ); 
-            stmt.setInt( "rID", restaurantID );  
-            
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            return query( "{call GetOrdersForRestaurant(?)}", 
+                    stmt -> stmt.setInt( "rID", restaurantID ), mapper );
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetOrderByID stored procedure.\n" +
                     "Exception: " + e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
     /**
      * getOrder: Gets a restaurant ID from a table ID
      * @param tableID the id of the table.
-     * @return SQL result set containing restaurant ID.
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
+     * @return the restaurantID, or -1 if none found.
      */
     public static int getRestaurantByTable( int tableID ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
 
-        try { 
-            stmt = c.prepareCall("{call GetRestaurantByTable(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call GetRestaurantByTable(?)}" ) ){
             stmt.setInt( "tID", tableID );  
             
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            try( ResultSet result = stmt.executeQuery() ){
+                result.next();
+                return result.getInt("restaurantID");
+            }
         } catch( SQLException e ){
             System.out.printf("Failed to exectue GetRestaurantByTable stored procedure.\n" +
                     "Exception: " + e.toString() );
-        }
-
-        try{
-            result.next(); 
-            return result.getInt("restaurantID");
-        } catch (SQLException e){
-            System.out.printf("Failed to get next row in result set.\n Exception: %s\n", e.toString() );
             return -1;
         }
     }
@@ -328,32 +282,21 @@ public class DBUtil {
      * @param restaurantID the id of the restaurant.
      * @param tableNumber the table number (not unique)
      * @return the table ID that corresponds, or -1 if none found
-     *
-     * Result set's cursor will start just before the first row.
-     * So use ResultSet.next() to get to the first row.
      */
     public static int getTableID( int restaurantID, int tableNumber ){
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
 
-        try { 
-            stmt = c.prepareCall("{call GetTableID(?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call GetTableID(?, ?)}" ) ){
             stmt.setInt( "rID", restaurantID );
             stmt.setInt( "tableNum", tableNumber);
             
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            try( ResultSet result = stmt.executeQuery() ){
+                result.next();
+                return result.getInt("tableID");
+            }
         } catch( SQLException e ){
-            System.out.printf("Failed to exectue GetRestaurantByTable stored procedure.\n" +
+            System.out.printf("Failed to exectue GetTableID stored procedure.\n" +
                     "Exception: " + e.toString() );
-        }
-
-        try{
-            result.next(); 
-            return result.getInt("tableID");
-        } catch (SQLException e){
-            System.out.printf("Failed to get next row in result set.\n Exception: %s\n", e.toString() );
             return -1;
         }
     }
@@ -362,42 +305,25 @@ public class DBUtil {
      * getMenu: Gets a specifed menu from a specifed restaurant. 
      * @param restaurantID
      * @param menuID
-     * @return SQL result representing the restaurantID, and menuID.
+     * @param mapper - turns the menu row into an object. 
+     * @return the mapped menu, or null if the restaurant has no such menu.
      */
-    public static ResultSet getMenu( int menuID, int restaurantID ){
+    public static <T> T getMenu( int menuID, int restaurantID, RowMapper<T> mapper ){
 
-        ResultSet menus;
-        boolean hasResult = false ;
-        menus = getMenus( restaurantID );
-
-        if( menus == null){
-            hasResult = false;
-            System.out.printf("Failed to find menuid: %d.\n", menuID);
-        }
-
-        int resultID; 
-        try{
-            hasResult = menus.next(); 
-        } catch (SQLException e){
-            System.out.printf("Failed to get next row in result set.\n Exception: %s\n", e.toString() );
+        ArrayList<T> menus = getMenus( restaurantID, rs -> {
+            if( rs.getInt( "menuID" ) == menuID ){
+                return mapper.map( rs );
+            }
             return null;
-        }
+        });
 
-        while( hasResult ){
-            try {
-                resultID = menus.getInt( "menuID" ); 
-                if( resultID == menuID ){
-                    return menus;
-                } else {
-                    hasResult = menus.next();
-                }
-            } catch (SQLException e ){
-                System.out.printf("SQL Excpetion when trying to get next row in result set.\n" +
-                        "Exception: " + e.toString() );
-                System.exit(1);
+        for( T menu : menus ){
+            if( menu != null ){
+                return menu;
             }
         }
-        return menus;
+        System.out.printf("Failed to find menuid: %d.\n", menuID);
+        return null;
     }
 
     /**
@@ -408,12 +334,9 @@ public class DBUtil {
      * false if otherwise. 
      */
     public static int saveRestaurant( Restaurant restaurant ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result; 
 
-        try{
-            stmt = c.prepareCall("{call CreateNewRestaurant( ?,?,?,?,?,?,?,?,?,? )}"); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call CreateNewRestaurant( ?,?,?,?,?,?,?,?,?,? )}") ){
             stmt.setNString("rName", restaurant.getName() ); 
             stmt.setNString("rDescr", restaurant.getDescription() ); 
             stmt.setNString("rAddress", restaurant.getAddress() ); 
@@ -425,10 +348,11 @@ public class DBUtil {
             stmt.setNString("pColor", restaurant.getPrimaryColor() ); 
             stmt.setNString("sColor", restaurant.getSecondaryColor() ); 
 
-            result = stmt.executeQuery(); 
-            result.next();
-            int restaurantID = result.getInt("newRestaurantID"); 
-            return restaurantID; 
+            try( ResultSet result = stmt.executeQuery() ){
+                result.next();
+                int restaurantID = result.getInt("newRestaurantID");
+                return restaurantID;
+            }
         }
         catch( SQLException e ) {
             System.out.printf("SQL Exception while executing CreateNewRestaurant.\n" + 
@@ -438,6 +362,29 @@ public class DBUtil {
         return -1; 
     }
 
+    /**
+     * saveRestaurantTimeZone: saves the time zone a restaurant's menu times are in.
+     * @param restaurantID - the restaurant to update. 
+     * @param timeZone - the zone id, i.e. "America/Chicago". 
+     * @return true if the time zone was saved, false if otherwise. 
+     */
+    public static boolean saveRestaurantTimeZone( int restaurantID, String timeZone ){
+
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call SetRestaurantTimeZone(?, ?)}") ){
+            stmt.setInt("rID", restaurantID ); 
+            stmt.setNString("tz", timeZone ); 
+            stmt.execute(); 
+            return true; 
+        }
+        catch( SQLException e ) {
+            System.out.printf("SQL Exception while executing SetRestaurantTimeZone.\n" + 
+                    "Exception: %s\n", e.toString() 
+            );
+        }
+        return false; 
+    }
+
     /**
      * saveMenu: Saves the passed menu object to the database. 
      * Inserting into the database will give us a menuID to use, so 
@@ -448,13 +395,8 @@ public class DBUtil {
      */
     public static void saveMenu( Menu menu ){
 
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result; 
-        int menuID; 
-        
-        try {
-            stmt = c.prepareCall("{call CreateNewMenu(?, ?, ?, ?, ?)}");
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call CreateNewMenu(?, ?, ?, ?, ?)}") ){
             stmt.setInt( "mStatus", menu.getStatus() ); 
             stmt.setInt("restaurantID", menu.getRestaurantID() ); 
             stmt.setNString("menuName", menu.getName() ); 
@@ -462,10 +404,11 @@ public class DBUtil {
             stmt.setInt("endTime", menu.getTimeRanges()[0].getEndTime() );  
 
             System.out.printf("status int: %d\n", menu.getStatus() ); 
-            result = stmt.executeQuery(); 
-            result.next(); 
-            menuID = result.getInt( "menuID");
-            menu.setMenuID( menuID ); 
+            try( ResultSet result = stmt.executeQuery() ){
+                result.next();
+                int menuID = result.getInt( "menuID");
+                menu.setMenuID( menuID );
+            }
         }
         catch(SQLException e){ 
             System.out.printf("SQL Exception while executing CreateNewMenu.\n" + 
@@ -480,13 +423,9 @@ public class DBUtil {
      * @param menuItem - the menuItem object to add to the database. 
      */
     public static boolean saveMenuItem( int menuID, int restaurantID, MenuItem menuItem ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result; 
-        ResultSet result2; 
 
-        try {
-            stmt = c.prepareCall( "{call CreateNewMenuItem(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call CreateNewMenuItem(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)}" ) ){
             stmt.setInt("mID", menuID ); 
             stmt.setNString("iName", menuItem.getName()); 
             stmt.setString("idesc", menuItem.getDescription()); 
@@ -529,14 +468,15 @@ public class DBUtil {
 
             
             //createdMenuID is in second result set...
-            result = stmt.executeQuery(); 
+            stmt.executeQuery().close();
             stmt.getMoreResults(); 
-            result2 = stmt.getResultSet();
-            result2.next();
+            try( ResultSet result2 = stmt.getResultSet() ){
+                result2.next();
 
-            //get output param 
-            int menuItemID = result2.getInt("createdMenuItemID"); 
-            menuItem.setItemID( menuItemID ); 
+                //get output param
+                int menuItemID = result2.getInt("createdMenuItemID");
+                menuItem.setItemID( menuItemID );
+            }
 
         }
         catch( SQLException e ){
@@ -551,48 +491,76 @@ public class DBUtil {
      * getMenuTimes: gets the menuTimes for the specified menuID. 
      * Calls the GetMenuTimes stored procedure. 
      * @param menuID the menuID to get menu times for. 
+     * @param mapper turns each time range row into an object. 
      */
-    public static ResultSet getMenuTimes( int menuID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result = null;
+    public static <T> ArrayList<T> getMenuTimes( int menuID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetMenuTimes(?)}"); 
-            stmt.setInt("mID", menuID ); 
-            result = stmt.executeQuery(); 
-            result.beforeFirst();  
-
-        } catch (SQLException e){
+            return query( "{call GetMenuTimes(?)}", 
+                    stmt -> stmt.setInt("mID", menuID ), mapper );
+        } catch( SQLException e ){
             System.out.printf("SQL Exception while executing GetMenuTimes.\n" + 
                     "Exception: %s\n", e.toString() );
         }
-        return result; 
+        return new ArrayList<T>();
     }
 
     /**
      * getMenuItems: gets the menu Items associated with a menuID. 
      * @param menuID
-     * @return result set containing tuples of menu items.
+     * @param mapper - turns each menu item row into an object.
+     * @return the mapped menu items.
      */
-    public static ResultSet getMenuItems( int menuID ) {
+    public static <T> ArrayList<T> getMenuItems( int menuID, RowMapper<T> mapper ){
+
+        try { 
+            return query( "{call GetMenuItemByMenuId(?)}", 
+                    stmt -> stmt.setInt( "id", menuID), mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetMenuItemsByMenuId\n" + 
+                    "Exception: %s\n", e.toString()); 
+        }
+        return new ArrayList<T>();
+    }
 
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt;
+    /**
+     * getMenuTimesForRestaurant: gets the menu times of every menu at a restaurant in one call. 
+     * Calls the GetMenuTimesByRestaurant stored procedure, defined in sql/01_menu_bulk_loading.sql. 
+     * @param restaurantID 
+     * @param mapper - turns each time range row into an object. 
+     * @return the mapped time ranges grouped by menuID, 
+     * or null if the procedure could not be run. 
+     */
+    public static <T> HashMap<Integer, ArrayList<T>> getMenuTimesForRestaurant( int restaurantID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetMenuItemByMenuId(?)}" ); 
-            stmt.setInt( "id", menuID);  
+            return queryGrouped( "{call GetMenuTimesByRestaurant(?)}", 
+                    stmt -> stmt.setInt( "rID", restaurantID ), "menuID", mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetMenuTimesByRestaurant.\n" + 
+                    "Exception: %s\n", e.toString() );
+        }
+        return null;
+    }
 
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+    /**
+     * getMenuItemsForRestaurant: gets the menu items of every menu at a restaurant in one call. 
+     * Calls the GetMenuItemsByRestaurant stored procedure, defined in sql/01_menu_bulk_loading.sql. 
+     * @param restaurantID 
+     * @param mapper - turns each menu item row into an object. 
+     * @return the mapped menu items grouped by menuID, 
+     * or null if the procedure could not be run. 
+     */
+    public static <T> HashMap<Integer, ArrayList<T>> getMenuItemsForRestaurant( int restaurantID, RowMapper<T> mapper ){
 
-        } catch (SQLException e){
-            System.out.printf("SQL Exception while executing GetMenuItemsByMenuId\n" + 
-                    "Exception: %s\n", e.toString()); 
+        try { 
+            return queryGrouped( "{call GetMenuItemsByRestaurant(?)}", 
+                    stmt -> stmt.setInt( "rID", restaurantID ), "menuID", mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetMenuItemsByRestaurant.\n" + 
+                    "Exception: %s\n", e.toString() );
         }
-        return result;
+        return null;
     }
 
     /**
@@ -602,26 +570,21 @@ public class DBUtil {
      */
     public static int getRestaurantUserManages( int userID ) {
 
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt;
-
-        try { 
-            stmt = c.prepareCall("{call GetRestaurantsUserManages(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call GetRestaurantsUserManages(?)}" ) ){
             stmt.setInt( "iUserID", userID);  
 
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+            try( ResultSet result = stmt.executeQuery() ){
+                boolean hasNext = result.next();
+                int restaurantID = -1;
+                //just grab the first restaurant they manage, if there are any
+                if(hasNext){
+                    restaurantID = result.getInt("restaurantID");
+                }
 
-            boolean hasNext = result.next();
-            int restaurantID = -1;
-            //just grab the first restaurant they manage, if there are any
-            if(hasNext){
-                restaurantID = result.getInt("restaurantID");
+                return restaurantID;
             }
 
-            return restaurantID;
-
         } catch (SQLException e){
             System.out.printf("SQL Exception while executing GetMenuItemsByMenuId\n" + 
                     "Exception: %s\n", e.toString()); 
@@ -634,26 +597,61 @@ public class DBUtil {
     /**
      * getOrderItems: gets the order Items associated with a orderID. 
      * @param orderID
-     * @return result set containing tuples of order items.
+     * @param mapper - turns each order item row into an object.
+     * @return the mapped order items.
      */
-    public static ResultSet getOrderItems( int orderID ) {
+    public static <T> ArrayList<T> getOrderItems( int orderID, RowMapper<T> mapper ){
+
+        try { 
+            return query( "{call GetAllOrderItemsFromOrder(?)}", 
+                    stmt -> stmt.setInt( "myOrderID", orderID), mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetAllOrderItemsFromOrder\n" + 
+                    "Exception: %s\n", e.toString()); 
+        }
+        return new ArrayList<T>();
+    }
 
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt;
+    /**
+     * getOrderItemsForRestaurant: gets the items of every order at a restaurant in one call. 
+     * Calls the GetOrderItemsByRestaurant stored procedure, defined in sql/02_order_item_bulk_loading.sql, 
+     * which returns the same orders as GetOrdersForRestaurant. 
+     * @param restaurantID 
+     * @param mapper - turns each order item row into an object. 
+     * @return the mapped order items grouped by orderID, 
+     * or null if the procedure could not be run. 
+     */
+    public static <T> HashMap<Integer, ArrayList<T>> getOrderItemsForRestaurant( int restaurantID, RowMapper<T> mapper ){
 
         try { 
-            stmt = c.prepareCall("{call GetAllOrderItemsFromOrder(?)}" ); 
-            stmt.setInt( "myOrderID", orderID);  
+            return queryGrouped( "{call GetOrderItemsByRestaurant(?)}", 
+                    stmt -> stmt.setInt( "rID", restaurantID ), "orderID", mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetOrderItemsByRestaurant.\n" + 
+                    "Exception: %s\n", e.toString() );
+        }
+        return null;
+    }
 
-            result = stmt.executeQuery(); 
-            result.beforeFirst(); 
+    /**
+     * getOrderItemsWithin24Hours: gets the items of every order a user made within 24 hours in one call. 
+     * Calls the GetOrderItemsInPast24Hours stored procedure, defined in sql/02_order_item_bulk_loading.sql, 
+     * which returns the same orders as GetOrdersInPast24Hours. 
+     * @param userID 
+     * @param mapper - turns each order item row into an object. 
+     * @return the mapped order items grouped by orderID, 
+     * or null if the procedure could not be run. 
+     */
+    public static <T> HashMap<Integer, ArrayList<T>> getOrderItemsWithin24Hours( int userID, RowMapper<T> mapper ){
 
-        } catch (SQLException e){
-            System.out.printf("SQL Exception while executing GetAllOrderItemsFromOrder\n" + 
-                    "Exception: %s\n", e.toString()); 
+        try { 
+            return queryGrouped( "{call GetOrderItemsInPast24Hours(?)}", 
+                    stmt -> stmt.setInt( "uID", userID ), "orderID", mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing GetOrderItemsInPast24Hours.\n" + 
+                    "Exception: %s\n", e.toString() );
         }
-        return result;
+        return null;
     }
 
     /**
@@ -663,21 +661,18 @@ public class DBUtil {
      * @param user - user object with an unknown userID. 
      */
     public static int getUserID( User user ){
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
         int userID = -1; 
 
-        try{
-            stmt = c.prepareCall("{call GetUserIdByEmail(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call GetUserIdByEmail(?)}" ) ){
             stmt.setNString("emailAddress", user.getEmail() );
-            result = stmt.executeQuery(); 
-            
-            boolean hasNext = result.next();
-            if(hasNext){
-                userID = result.getInt("userID"); 
-            } else {
-                userID = -1;
+            try( ResultSet result = stmt.executeQuery() ){
+                boolean hasNext = result.next();
+                if(hasNext){
+                    userID = result.getInt("userID");
+                } else {
+                    userID = -1;
+                }
             }
         }
         catch( SQLException e ){
@@ -694,21 +689,18 @@ public class DBUtil {
      * @param menuItemID - the ID of the menu item
      */
     public static String getItemNameFromID( int menuItemID ){
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
         String itemName = ""; 
 
-        try{
-            stmt = c.prepareCall("{call GetMenuItembyItemId(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call GetMenuItembyItemId(?)}" ) ){
             stmt.setInt("id", menuItemID );
-            result = stmt.executeQuery(); 
-            
-            boolean hasNext = result.next();
-            if(hasNext){
-                itemName = result.getString("itemName"); 
-            } else {
-                itemName = "";
+            try( ResultSet result = stmt.executeQuery() ){
+                boolean hasNext = result.next();
+                if(hasNext){
+                    itemName = result.getString("itemName");
+                } else {
+                    itemName = "";
+                }
             }
         }
         catch( SQLException e ){
@@ -724,9 +716,6 @@ public class DBUtil {
      * @param user - user object with an email address and restaurantID set. 
      */
     public static boolean addUserAsManager( User user ){
-        ResultSet result = null; 
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
         int userID = getUserID(user);
 
         //invalid user
@@ -734,11 +723,11 @@ public class DBUtil {
             return false;
         }
 
-        try{
-            stmt = c.prepareCall("{call AddManagerToRestaurant(?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call AddManagerToRestaurant(?, ?)}" ) ){
             stmt.setInt("userID", userID );
             stmt.setInt("restaurantID", user.getRestaurantID());
-            result = stmt.executeQuery(); 
+            stmt.executeQuery().close();
 
             return true;
         }
@@ -752,21 +741,18 @@ public class DBUtil {
 
     public static boolean addUser(User user) {
 
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
-
-        try {
-            stmt = c.prepareCall("{call CreateUser(?,?,?,?)}");
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall("{call CreateUser(?,?,?,?)}") ){
             stmt.setNString("firstName", user.getFirstName());
             stmt.setNString("lastName", user.getLastName());
             stmt.setNString("email", user.getEmail());
 
-            result = stmt.executeQuery();
-            result.next();
-            int userID = result.getInt("newUserID"); 
-            user.setUserID( userID ); 
-            return true;
+            try( ResultSet result = stmt.executeQuery() ){
+                result.next();
+                int userID = result.getInt("newUserID");
+                user.setUserID( userID );
+                return true;
+            }
 
         } catch (SQLException e) {
             System.out.printf("SQL Exception while executing AddUser.\n" +
@@ -777,72 +763,169 @@ public class DBUtil {
 
     /**
      * saveOrder - saves the order and all of its order items to the database.   
+     * Everything is written in one transaction, so a failure part way through 
+     * leaves no half saved order behind. All of the order items are sent in one call. 
      * @param order - a full order containing all of its menu items
      */
     public static boolean saveOrder( Order order ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result;
 
-        try {
-            for(OrderItem item : order.getOrderItems()){
-                //if any fields are invalid, don't make the order
-                if(item.getMenuItemID() <= 0 || item.getMenuID() == null || item.getMenuID() <= 0 || item.getQuantity() <= 0 || item.getComments() == null) {
-                    System.out.println("MenuID, MenuItemID, quantity, or comments are null, cannot save order"); 
-                    return false;
-                }
-            }
-            stmt = c.prepareCall( "{call CreateNewOrder(?, ?)}" ); 
-            stmt.setInt("tableID", order.getTableID() ); 
-            stmt.setInt("customerID", order.getCustomerID()); 
-            
-            //initialize order in DB and store the new orderID
-            result = stmt.executeQuery(); 
-            result.next();
-            int orderID = result.getInt("newOrderID"); 
-
-            order.setOrderID( orderID ); 
-
-            //add all orderitems to order
-            ArrayList<OrderItem> orderItems = order.getOrderItems();
-            for( OrderItem orderItem : orderItems ){
-                stmt = c.prepareCall( "{call AddItemToOrder(?, ?, ?, ?, ?)}" );
-                stmt.setInt("orderIDToAddTo", orderID);
-                stmt.setInt("menuItemIDToAdd", orderItem.getMenuItemID());
-                stmt.setInt("menuID", orderItem.getMenuID());
-                stmt.setInt("quantityToAdd", orderItem.getQuantity());
-                stmt.setString("commentsToAdd", orderItem.getComments());
-                stmt.executeQuery();
-            }
-
-            //complete order
-            stmt = c.prepareCall( "{call CompleteOrder(?)}" );
-            stmt.setInt("oID", orderID);
-            stmt.executeQuery();
+        //if any fields are invalid, don't make the order
+        if( !order.hasValidItems() ){
+            System.out.println("MenuID, MenuItemID, quantity, or comments are null, cannot save order");
+            return false;
+        }
 
+        try {
+            saveOrders( Arrays.asList( order ) );
         }
         catch( SQLException e ){
-            System.out.printf("SQL Exception while executing saveOrder.\n" + 
+            System.out.printf("SQL Exception while executing saveOrder, the order was rolled back.\n" + 
                     "Exception: %s\n", e.toString() );
             return false; 
         }
         return true; 
     }
 
+    /**
+     * saveOrders - saves several orders in one transaction, so they share a single commit.   
+     * Either every order is saved or none are. 
+     * The orders' IDs are set once the transaction commits. 
+     * An order with a submission handle is saved with it, and skipped if an order 
+     * was already saved under that handle, so a retried submission is only saved once. 
+     * Each order takes the same number of calls however many items it has. 
+     * @param orders - full orders, already checked with Order.hasValidItems(). 
+     * @throws SQLException if any order could not be saved, after rolling back. 
+     */
+    public static void saveOrders( List<Order> orders ) throws SQLException {
+        boolean checkHandles = submissionHandlesInstalled;
+        boolean bulkItems = bulkItemsInstalled;
+        try {
+            saveOrders( orders, checkHandles, bulkItems ); 
+        } catch( SQLException e ){
+            if( e.getErrorCode() != NO_SUCH_PROCEDURE ){
+                throw e; 
+            }
+            if( bulkItems && String.valueOf( e.getMessage() ).contains("AddItemsToOrder") ){
+                bulkItemsInstalled = false; 
+                System.out.printf("Saving order items one call at a time, the procedure is missing. " + 
+                        "Install it with sql/05_order_item_bulk_saving.sql.\n" +
+                        "Exception: %s\n", e.toString() );
+            } else if( checkHandles ){
+                submissionHandlesInstalled = false; 
+                System.out.printf("Saving orders without their submission handles, the procedures are missing. " + 
+                        "Install them with sql/03_order_submission_handles.sql.\n" +
+                        "Exception: %s\n", e.toString() );
+            } else {
+                throw e; 
+            }
+            //each retry turns one of the flags off, so this ends.
+            saveOrders( orders ); 
+        }
+    }
+
+    private static void saveOrders( List<Order> orders, boolean checkHandles, boolean bulkItems ) throws SQLException {
+
+        try( Connection c = getConnection() ){
+            c.setAutoCommit( false );
+            try( CallableStatement createStmt = c.prepareCall( "{call CreateNewOrder(?, ?)}" );
+                 CallableStatement itemStmt = bulkItems ? 
+                     c.prepareCall( "{call AddItemsToOrder(?, ?)}" ) : c.prepareCall( "{call AddItemToOrder(?, ?, ?, ?, ?)}" );
+                 CallableStatement completeStmt = c.prepareCall( "{call CompleteOrder(?)}" );
+                 CallableStatement findStmt = checkHandles ? c.prepareCall( "{call GetOrderBySubmission(?)}" ) : null;
+                 CallableStatement claimStmt = checkHandles ? c.prepareCall( "{call SetOrderSubmission(?, ?)}" ) : null ){
+
+                int[] orderIDs = new int[ orders.size() ];
+                for( int i = 0; i < orders.size(); i++ ){
+                    Order order = orders.get(i);
+                    String handle = checkHandles ? order.getSubmissionHandle() : null; 
+
+                    //already saved before a restart, keep the order it was saved as.
+                    if( handle != null ){
+                        findStmt.setString("handle", handle);
+                        try( ResultSet result = findStmt.executeQuery() ){
+                            if( result.next() ){
+                                orderIDs[i] = result.getInt("orderID");
+                                continue; 
+                            }
+                        }
+                    }
+
+                    createStmt.setInt("tableID", order.getTableID() );
+                    createStmt.setInt("customerID", order.getCustomerID());
+
+                    //initialize order in DB and store the new orderID
+                    try( ResultSet result = createStmt.executeQuery() ){
+                        result.next();
+                        orderIDs[i] = result.getInt("newOrderID");
+                    }
+                    if( handle != null ){
+                        claimStmt.setInt("oID", orderIDs[i]);
+                        claimStmt.setString("handle", handle);
+                        claimStmt.execute();
+                    }
+
+                    //add all orderitems to order, in one call if AddItemsToOrder is installed. 
+                    if( bulkItems ){
+                        itemStmt.setInt("orderIDToAddTo", orderIDs[i]);
+                        itemStmt.setString("items", itemsJson( order ));
+                        itemStmt.execute();
+                    } else {
+                        for( OrderItem orderItem : order.getOrderItems() ){
+                            itemStmt.setInt("orderIDToAddTo", orderIDs[i]);
+                            itemStmt.setInt("menuItemIDToAdd", orderItem.getMenuItemID());
+                            itemStmt.setInt("menuID", orderItem.getMenuID());
+                            itemStmt.setInt("quantityToAdd", orderItem.getQuantity());
+                            itemStmt.setString("commentsToAdd", orderItem.getComments());
+                            itemStmt.executeQuery().close();
+                        }
+                    }
+
+                    //complete order
+                    completeStmt.setInt("oID", orderIDs[i]);
+                    completeStmt.executeQuery().close();
+                }
+
+                c.commit();
+                for( int i = 0; i < orders.size(); i++ ){
+                    orders.get(i).setOrderID( orderIDs[i] ); 
+                }
+            } catch( SQLException e ){
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * itemsJson - the order's items as the JSON array AddItemsToOrder takes. 
+     */
+    static String itemsJson( Order order ){
+        JsonArray items = new JsonArray();
+        for( OrderItem orderItem : order.getOrderItems() ){
+            JsonObject item = new JsonObject();
+            item.addProperty("menuItemID", orderItem.getMenuItemID());
+            item.addProperty("menuID", orderItem.getMenuID());
+            item.addProperty("quantity", orderItem.getQuantity());
+            if( orderItem.getComments() != null ){
+                item.addProperty("comments", orderItem.getComments());
+            }
+            items.add( item );
+        }
+        return items.toString();
+    }
+
     /**
      * markOrderReady - marks an order ready to go out to a table  
      * @param orderID - the id of the order that is now ready
      */
     public static boolean markOrderReady( int orderID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call MarkOrderReady(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call MarkOrderReady(?)}" ) ){
             stmt.setInt("oID", orderID); 
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -859,16 +942,14 @@ public class DBUtil {
      * @param restaurantID - the id of the restaurant
      */
     public static boolean addFavoriteRestaurant( int userID, int restaurantID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call AddFavoriteRestaurant(?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call AddFavoriteRestaurant(?, ?)}" ) ){
             stmt.setInt("uID", userID);
             stmt.setInt("rID", restaurantID); 
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -885,16 +966,14 @@ public class DBUtil {
      * @param restaurantID - the id of the restaurant
      */
     public static boolean removeFavoriteRestaurant( int userID, int restaurantID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call RemoveFavoriteRestaurant(?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call RemoveFavoriteRestaurant(?, ?)}" ) ){
             stmt.setInt("uID", userID);
             stmt.setInt("rID", restaurantID); 
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -910,15 +989,13 @@ public class DBUtil {
      * @param menuID - the id of the menu
      */
     public static boolean removeMenu( int menuID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call RemoveMenu(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call RemoveMenu(?)}" ) ){
             stmt.setInt("mID", menuID);
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -934,15 +1011,13 @@ public class DBUtil {
      * @param itemID - the id of the item
      */
     public static boolean removeMenuItem( int itemID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call RemoveMenuItem(?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call RemoveMenuItem(?)}" ) ){
             stmt.setInt("iID", itemID);
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -959,16 +1034,14 @@ public class DBUtil {
      * @param menuID - the id of the menu
      */
     public static boolean removeItemFromMenu( int itemID, int menuID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
 
-        try {
-            stmt = c.prepareCall( "{call RemoveItemFromMenu(?, ?)}" ); 
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( "{call RemoveItemFromMenu(?, ?)}" ) ){
             stmt.setInt("iID", itemID);
             stmt.setInt("mID", menuID);
             
             //return true if succeded
-            stmt.executeQuery(); 
+            stmt.executeQuery().close();
             return true;
 
         }
@@ -982,78 +1055,241 @@ public class DBUtil {
     /**
      * getFavoriteRestaurants - gets the favorite restaurants for a user
      * @param userID - the id of the user
+     * @param mapper - turns each restaurant row into an object
      */
-    public static ResultSet getFavoriteRestaurants( int userID ){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result = null;
-
-        try {
-            stmt = c.prepareCall( "{call GetFavoriteRestaurants(?)}" ); 
-            stmt.setInt("inputUserID", userID);
-            
-            //return response formatted in JSON
-            result = stmt.executeQuery(); 
-            return result;
+    public static <T> ArrayList<T> getFavoriteRestaurants( int userID, RowMapper<T> mapper ){
 
-        }
-        catch( Exception e ){
+        try { 
+            return query( "{call GetFavoriteRestaurants(?)}", 
+                    stmt -> stmt.setInt("inputUserID", userID), mapper );
+        } catch( SQLException e ){
             System.out.printf("SQL Exception while executing getFavoriteRestaurants.\n" + 
                     "Exception: %s\n", e.toString() );
         }
-        return result;
+        return new ArrayList<T>();
     }
 
     /** getRestaurant = gets the restaurant with the specified restaurantID.
      * @param restaurantID 
-     * @return ResultSet - SQL result representing feilds for a restaurant. 
+     * @param mapper - turns the restaurant row into an object. 
+     * @return the mapped restaurant, or null if there is no such restaurant. 
      */
-    public static ResultSet getRestaurant( int restaurantID ) {
-
-        ResultSet result = null;
-        Connection c = connectToDB();
-        CallableStatement stmt;
-        try {
-            stmt = c.prepareCall("{call GetRestaurantByID(?)}" ); 
-            stmt.setInt( "rID", restaurantID );  
-            result = stmt.executeQuery();  
-            result.beforeFirst(); 
-            return result;
+    public static <T> T getRestaurant( int restaurantID, RowMapper<T> mapper ){
 
+        try { 
+            return first( query( "{call GetRestaurantByID(?)}", 
+                    stmt -> stmt.setInt( "rID", restaurantID ), mapper ) );
         } catch( SQLException e ){
             System.out.printf("Failed to query for restaurant. restaurantID %d .\n" +
                     "Exception: %s\n", restaurantID, e.toString() );
         }
-        return result; 
+        return null;
     }
 
     /**
-     * getAllRestaurants- gets the favorite restaurants for a user
-     * @param userID - the id of the user
+     * getAllRestaurants- gets every restaurant
+     * @param mapper - turns each restaurant row into an object
      */
-    public static ResultSet getAllRestaurants(){
-        Connection c = connectToDB(); 
-        CallableStatement stmt; 
-        ResultSet result = null;
+    public static <T> ArrayList<T> getAllRestaurants( RowMapper<T> mapper ){
+
+        try { 
+            return query( "{call GetAllRestaurants()}", 
+                    stmt -> {}, mapper );
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while executing getAllRestaurants.\n" + 
+                    "Exception: %s\n", e.toString() );
+        }
+        return new ArrayList<T>();
+    }
 
+    /**
+     * exportOrderItems: write every item ever ordered at a restaurant as a JSON array. 
+     * Calls GetOrderItemsPage, defined in sql/06_order_item_export.sql, for EXPORT_PAGE_SIZE 
+     * items at a time. Each page is read whole and the connection is back in the pool 
+     * before the page is written, so a slow client never holds a connection, and only 
+     * one page is in memory at a time. 
+     * @param restaurantID 
+     * @param out - the stream to write to, it is flushed but not closed. 
+     * @return false, without writing anything, if EXPORT_MAX_CONCURRENT exports are already running. 
+     * @throws SQLException if a call failed. If it fails after the first page the array is cut short. 
+     * @throws IOException if the client went away. 
+     */
+    public static boolean exportOrderItems( int restaurantID, OutputStream out ) throws SQLException, IOException {
+        return exportOrderItems( restaurantID, out, EXPORT_PAGE_SIZE ); 
+    }
+
+    static boolean exportOrderItems( int restaurantID, OutputStream out, int pageSize ) throws SQLException, IOException {
+        if( !exports.tryAcquire() ){
+            return false; 
+        }
         try {
-            stmt = c.prepareCall( "{call GetAllRestaurants()}" ); 
-            
-            //return response formatted in JSON
-            result = stmt.executeQuery(); 
-            return result;
+            out.write( '[' ); 
+            long after = 0; 
+            boolean first = true; 
+            while( true ){
+                long from = after; 
+                ByteArrayOutputStream page = new ByteArrayOutputStream(); 
+                after = queryJson( "{call GetOrderItemsPage(?, ?, ?)}", stmt -> {
+                    stmt.setInt( "rID", restaurantID ); 
+                    stmt.setLong( "afterItemID", from ); 
+                    stmt.setInt( "pageSize", pageSize ); 
+                }, "orderItemID", page ); 
+                if( after < 0 ){
+                    break; 
+                }
 
+                //the page is written as an array of its own, send the rows without its brackets. 
+                byte[] rows = page.toByteArray(); 
+                if( !first ){
+                    out.write( ',' ); 
+                }
+                out.write( rows, 1, rows.length - 2 ); 
+                first = false; 
+            }
+            out.write( ']' ); 
+            out.flush(); 
+            return true; 
+        } finally {
+            exports.release(); 
         }
-        catch( Exception e ){
-            System.out.printf("SQL Exception while executing getFavoriteRestaurants.\n" + 
-                    "Exception: %s\n", e.toString() );
+    }
+
+    /**
+     * ParamBinder: sets the parameters of a stored procedure call.
+     */
+    private interface ParamBinder {
+        void bind( CallableStatement stmt ) throws SQLException;
+    }
+
+    /**
+     * query: call a stored procedure and map every row it returns.
+     * The rows are mapped while the cursor is open, then the statement
+     * is closed and the connection goes back to the pool before this returns.
+     * @param call - the stored procedure call, i.e. {call GetMenuTimes(?)}
+     * @param binder - sets the parameters of the call.
+     * @param mapper - turns each row into an object.
+     * @return the mapped rows, in the order the procedure returned them.
+     */
+    private static <T> ArrayList<T> query( String call, ParamBinder binder, RowMapper<T> mapper ) throws SQLException {
+        ArrayList<T> rows = new ArrayList<T>();
+
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( call ) ){
+            binder.bind( stmt );
+            try( ResultSet rs = stmt.executeQuery() ){
+                while( rs.next() ){
+                    rows.add( mapper.map( rs ) );
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * queryJson: call a stored procedure and write every row it returns as a JSON array, 
+     * see ResultSetConverter.stream. The connection goes back to the pool before this returns, 
+     * so out should be a buffer, not a client that may be slow to read. 
+     * @param call - the stored procedure call.
+     * @param binder - sets the parameters of the call.
+     * @param keyColumn - an integer column to return the last value of.
+     * @param out - the stream to write the rows to.
+     * @return keyColumn's value in the last row, or -1 if there were no rows.
+     */
+    private static long queryJson( String call, ParamBinder binder, String keyColumn, OutputStream out ) throws SQLException, IOException {
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( call ) ){
+            binder.bind( stmt );
+            try( ResultSet rs = stmt.executeQuery() ){
+                JsonWriter writer = new JsonWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+                long lastKey = ResultSetConverter.stream( rs, writer, keyColumn );
+                writer.flush();
+                return lastKey;
+            }
+        }
+    }
+
+    /**
+     * queryGrouped: call a stored procedure and map every row it returns, 
+     * grouping the rows by an integer column, i.e. menuID. 
+     * @param call - the stored procedure call.
+     * @param binder - sets the parameters of the call.
+     * @param keyColumn - the column to group the rows by.
+     * @param mapper - turns each row into an object.
+     * @return the mapped rows for each key, in the order the procedure returned them.
+     */
+    private static <T> HashMap<Integer, ArrayList<T>> queryGrouped( String call, ParamBinder binder,
+            String keyColumn, RowMapper<T> mapper ) throws SQLException {
+        HashMap<Integer, ArrayList<T>> groups = new HashMap<Integer, ArrayList<T>>();
+
+        try( Connection c = getConnection();
+             CallableStatement stmt = c.prepareCall( call ) ){
+            binder.bind( stmt );
+            try( ResultSet rs = stmt.executeQuery() ){
+                while( rs.next() ){
+                    int key = rs.getInt( keyColumn );
+                    ArrayList<T> group = groups.get( key );
+                    if( group == null ){
+                        group = new ArrayList<T>();
+                        groups.put( key, group );
+                    }
+                    group.add( mapper.map( rs ) );
+                }
+            }
+        }
+        return groups;
+    }
+
+    private static <T> T first( ArrayList<T> rows ){
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * initConnectionPool: create the connection pool and open its minimum connections.
+     * Exits if the database can not be reached, same as connecting used to.
+     */
+    public static void initConnectionPool(){
+        try {
+            getPool().fill();
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while trying to connect to the Database.\n" +
+                    "Exception: " + e.toString() + "\n" );
+            System.exit(1);
         }
-        return result;
+        System.out.printf("Connected to the hosted database!\n");
     }
 
-    public static Connection connectToDB(){
+    /**
+     * getConnection: borrow a connection from the pool.
+     * Close it when done to give it back, try-with-resources does this for you.
+     */
+    private static Connection getConnection() throws SQLException {
+        return getPool().borrow();
+    }
+
+    private static synchronized ConnectionPool getPool(){
+        if( pool == null ){
+            pool = new ConnectionPool( DBUtil::connectToDB );
+        }
+        return pool;
+    }
+
+    /**
+     * usePool: replace the connection pool, for tests that run against a fake database. 
+     * @param newPool - the pool every call borrows from from now on. 
+     */
+    static synchronized void usePool( ConnectionPool newPool ){
+        pool = newPool;
+        //a new database may have the procedures the last one was missing.
+        submissionHandlesInstalled = true;
+        bulkItemsInstalled = true;
+    }
+
+    /**
+     * connectToDB: open a new physical connection to the database.
+     * Everything in this class goes through the pool instead of calling this directly.
+     */
+    public static Connection connectToDB() throws SQLException {
 
-        Connection c = null;
         String baseURL, userName, password, connString;
         boolean isHost;
 
@@ -1072,20 +1308,12 @@ public class DBUtil {
 
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            c = DriverManager.getConnection( connString );
-
-        } catch( SQLException e ){
-            System.out.printf("SQL Exception while trying to connect to the Database.\n" +
-                    "Exception: " + e.toString() + "\n" );
-            System.exit(1);
-
         } catch( ClassNotFoundException e ){
             System.out.printf("Failed to find the Java Databse Driver for Mysql.\n");
             System.exit(1);
         }
-        System.out.printf("Connected to the hosted database!\n");
 
-        return c;
+        return DriverManager.getConnection( connString );
     }
 
     private static String getUserName() {
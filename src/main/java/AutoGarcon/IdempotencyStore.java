@@ -0,0 +1,154 @@
+package AutoGarcon;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * IdempotencyStore: Remembers the response to requests sent with an Idempotency-Key header.
+ *
+ * Clients retry order submissions when they time out, which used to save
+ * the order twice. When a request carries a key, the first request with that
+ * key runs, and retries with the same key get the first response back
+ * without running the handler again.
+ *
+ * Only successful responses are remembered, so a retry after a failure runs again.
+ * A retry that arrives while the first request is still running is turned away.
+ * Remembered responses are forgotten after IDEMPOTENCY_TTL_MS, and at most
+ * IDEMPOTENCY_MAX_KEYS are kept, past that the oldest are forgotten first.
+ * A key whose request is still running is never forgotten.
+ *
+ * Keys are kept in a ConcurrentHashMap, so requests with different keys never
+ * wait on each other. Remembered responses are also queued in the order they
+ * were stored, which is the order they expire in since they all live for the
+ * same TTL, so forgetting the oldest only looks at the front of the queue.
+ */
+public class IdempotencyStore {
+
+    private static final long TTL_MS = Long.getLong("IDEMPOTENCY_TTL_MS", 24 * 60 * 60 * 1000L);
+    private static final int MAX_KEYS = Integer.getInteger("IDEMPOTENCY_MAX_KEYS", 10000);
+
+    /**
+     * IN_PROGRESS: returned by claim when another request with the key is still running.
+     */
+    public static final Result IN_PROGRESS = new Result( 409, "A request with this Idempotency-Key is still being processed." );
+
+    private static final Map<String, Result> results = new ConcurrentHashMap<String, Result>();
+    //remembered responses, oldest first. Keys still running are not in here.
+    private static final ConcurrentLinkedQueue<Stored> stored = new ConcurrentLinkedQueue<Stored>();
+    private static final AtomicInteger storedCount = new AtomicInteger();
+
+    /**
+     * Result: the response remembered for a key.
+     */
+    public static class Result {
+        final int status;
+        final Object body;
+
+        Result( int status, Object body ){
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus(){
+            return this.status;
+        }
+
+        public Object getBody(){
+            return this.body;
+        }
+    }
+
+    /**
+     * Stored: a remembered response, and when it expires.
+     */
+    private static class Stored {
+        final String key;
+        final Result result;
+        final long expiresAt;
+
+        Stored( String key, Result result ){
+            this.key = key;
+            this.result = result;
+            this.expiresAt = System.currentTimeMillis() + TTL_MS;
+        }
+    }
+
+    /**
+     * claim: start handling a request with the given key.
+     * @param key - the request's key, scoped to the route it was sent to.
+     * @return null if the caller should handle the request and then call complete,
+     * IN_PROGRESS if another request with the key is running,
+     * or the remembered response to send back.
+     */
+    public static Result claim( String key ){
+        forgetOld();
+        return results.putIfAbsent( key, IN_PROGRESS );
+    }
+
+    /**
+     * complete: finish a request started with claim.
+     * A successful response is remembered, otherwise the key is released so it can be retried.
+     * @param key - the key passed to claim.
+     * @param status - the response status.
+     * @param body - the response body, or null if the handler threw.
+     */
+    public static void complete( String key, int status, Object body ){
+        if( body != null && status >= 200 && status < 300 ){
+            Result result = new Result( status, body );
+            if( results.replace( key, IN_PROGRESS, result ) ){
+                store( key, result );
+            }
+        } else {
+            results.remove( key, IN_PROGRESS );
+        }
+    }
+
+    /**
+     * remember: record a response that was sent before a restart.
+     * @param key - the request's key, scoped to the route it was sent to.
+     * @param status - the response status.
+     * @param body - the response body.
+     */
+    public static void remember( String key, int status, Object body ){
+        Result result = new Result( status, body );
+        if( results.putIfAbsent( key, result ) == null ){
+            store( key, result );
+        }
+    }
+
+    private static void store( String key, Result result ){
+        stored.add( new Stored( key, result ) );
+        storedCount.incrementAndGet();
+        forgetOld();
+    }
+
+    /**
+     * reset: forget every key, running or remembered, for tests.
+     */
+    static void reset(){
+        results.clear();
+        stored.clear();
+        storedCount.set( 0 );
+    }
+
+    /**
+     * forgetOld: forget remembered responses that have expired,
+     * and the oldest ones while there are more than IDEMPOTENCY_MAX_KEYS.
+     */
+    private static void forgetOld(){
+        long now = System.currentTimeMillis();
+        while( true ){
+            Stored oldest = stored.peek();
+            if( oldest == null || ( oldest.expiresAt > now && storedCount.get() <= MAX_KEYS ) ){
+                return;
+            }
+            //another thread may have taken it first, then just look again.
+            if( stored.remove( oldest ) ){
+                storedCount.decrementAndGet();
+                results.remove( oldest.key, oldest.result );
+            }
+        }
+    }
+}
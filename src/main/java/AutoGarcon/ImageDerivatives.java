@@ -0,0 +1,165 @@
+package AutoGarcon;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+
+/**
+ * ImageDerivatives: Makes smaller copies of uploaded images.
+ *
+ * Menus show images as small tiles, so sending the full size upload wastes
+ * most of the bytes. When ImageStore saves a new image, a copy is made at
+ * each width in WIDTHS that is smaller than the image, recompressed as a
+ * JPEG, and saved next to it as name.wWIDTH.jpg, whatever the image's type. ImageUtil hands out the URL
+ * of the smallest copy that is wide enough once it exists.
+ *
+ * The copies are made on IMAGE_WORKERS background threads, so an upload does
+ * not wait for them. At most IMAGE_QUEUE_SIZE images wait their turn, past
+ * that an upload gets no copies and clients are sent the original instead.
+ * IMAGE_JPEG_QUALITY sets the quality of the copies, from 0 to 1.
+ */
+public class ImageDerivatives {
+
+    /**
+     * WIDTHS: the widths copies are made at, smallest first.
+     */
+    public static final int[] WIDTHS = { 160, 480, 960 };
+
+    /**
+     * THUMBNAIL_WIDTH: the width of the copies shown in the menu list.
+     */
+    public static final int THUMBNAIL_WIDTH = WIDTHS[0];
+
+    private static final int WORKERS = Integer.getInteger("IMAGE_WORKERS", 2);
+    private static final int QUEUE_SIZE = Integer.getInteger("IMAGE_QUEUE_SIZE", 100);
+    private static final float QUALITY = Float.parseFloat( System.getProperty("IMAGE_JPEG_QUALITY", "0.8") );
+
+    private static final ThreadPoolExecutor workers = newWorkers();
+
+    /**
+     * submit: make the smaller copies of an image in the background.
+     * @param original - the image, named name.jpg or with the extension of its type.
+     * @param made - told the file name of each copy once it is in place.
+     */
+    public static void submit( File original, Consumer<String> made ){
+        workers.execute( () -> makeCopies( original, made ) );
+    }
+
+    /**
+     * makeCopies: make the smaller copies of an image, now.
+     * @param original - the image, named name.jpg or with the extension of its type.
+     * @param made - told the file name of each copy once it is in place.
+     */
+    static void makeCopies( File original, Consumer<String> made ){
+        String filename = original.getName();
+        int dot = filename.lastIndexOf('.');
+        String name = dot > 0 ? filename.substring( 0, dot ) : filename;
+
+        try {
+            BufferedImage image = ImageIO.read( original );
+            if( image == null ){
+                System.out.printf("Failed to make smaller copies of %s, it is not an image.\n", filename );
+                return;
+            }
+            for( int width : WIDTHS ){
+                if( width >= image.getWidth() ){
+                    break;
+                }
+                String copyName = name + ".w" + width + ".jpg";
+                File copy = new File( original.getParentFile(), copyName );
+                File temp = new File( original.getParentFile(), copyName + ".tmp" );
+
+                writeJpeg( resize( image, width ), temp );
+                //clients never see a half written copy.
+                Files.move( temp.toPath(), copy.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+                made.accept( copyName );
+            }
+        } catch( IOException ioe ){
+            System.out.printf("Failed to make smaller copies of %s.\n" +
+                    "Exception: %s\n", filename, ioe.toString() );
+        }
+    }
+
+    /**
+     * resize: scale an image down to a width, keeping its shape.
+     * Images are halved until they are close to the width, and scaled the rest
+     * of the way in one step, which looks much better than one big bilinear step.
+     * Transparent parts are filled in white, JPEGs have no transparency.
+     */
+    static BufferedImage resize( BufferedImage image, int width ){
+        int height = Math.max( 1, (int) Math.round( (double) image.getHeight() * width / image.getWidth() ) );
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            int nextWidth = currentWidth / 2 >= width ? currentWidth / 2 : width;
+            int nextHeight = currentWidth / 2 >= width ? Math.max( height, currentHeight / 2 ) : height;
+
+            BufferedImage next = new BufferedImage( nextWidth, nextHeight, BufferedImage.TYPE_INT_RGB );
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+                g.setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY );
+                g.drawImage( current, 0, 0, nextWidth, nextHeight, Color.WHITE, null );
+            } finally {
+                g.dispose();
+            }
+            current = next;
+            currentWidth = nextWidth;
+            currentHeight = nextHeight;
+        } while( currentWidth > width );
+        return current;
+    }
+
+    private static void writeJpeg( BufferedImage image, File file ) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName( "jpeg" );
+        if( !writers.hasNext() ){
+            throw new IOException( "No JPEG writer is available." );
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode( ImageWriteParam.MODE_EXPLICIT );
+        param.setCompressionQuality( QUALITY );
+
+        Files.deleteIfExists( file.toPath() );
+        try( ImageOutputStream out = ImageIO.createImageOutputStream( file ) ){
+            writer.setOutput( out );
+            writer.write( null, new IIOImage( image, null, null ), param );
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ThreadPoolExecutor newWorkers(){
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor( WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ),
+                runnable -> {
+                    Thread thread = new Thread( runnable, "image-derivatives-" + count.incrementAndGet() );
+                    thread.setDaemon( true );
+                    return thread;
+                },
+                ( runnable, executor ) -> System.out.printf("Too many images are waiting to be resized, " +
+                    "an upload will be served at full size.\n") );
+        pool.allowCoreThreadTimeOut( true );
+        return pool;
+    }
+}
@@ -0,0 +1,217 @@
+package AutoGarcon;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * ImageIndex: Remembers which menu, menu item and restaurant images exist.
+ *
+ * Building an image URL used to check the file system for the image,
+ * once for every menu item. Instead the image directories are listed once
+ * at startup, and the index is kept up to date when an image is uploaded,
+ * and by a WatchService for files changed by anything else.
+ * Pass IMAGE_WATCH=false to turn the WatchService off.
+ *
+ * For each kind of image, and each resized copy made by ImageDerivatives,
+ * the index is an array from ID to the file's modification time,
+ * 0 if there is no image, so a lookup is one array read.
+ * IDs past IMAGE_INDEX_MAX_ID are checked on the file system instead.
+ */
+public class ImageIndex {
+
+    public static final String MENU_ITEM = "menuitem";
+    public static final String MENU = "menu";
+    public static final String RESTAURANT = "restaurant";
+
+    /**
+     * DIRECTORIES: where images are served from, in the order they are searched.
+     * The generated images are kept in resources, uploads are linked from ImageUtil.basePath
+     * to the images in ImageStore.BLOB_PATH.
+     */
+    static final String[] DIRECTORIES = { "src/main/resources/public/images/", ImageUtil.basePath, ImageStore.BLOB_PATH };
+
+    private static final int MAX_ID = Integer.getInteger("IMAGE_INDEX_MAX_ID", 1 << 20);
+    //kind.id.jpg for an original, kind.id.wWIDTH.jpg for a resized copy.
+    private static final Pattern NAME = Pattern.compile( "(menuitem|menu|restaurant)\\.(\\d+)(?:\\.w(\\d+))?\\.jpg" );
+
+    //keyed by kind for originals, and kind.wWIDTH for resized copies.
+    private static final Map<String, Stamps> index = new ConcurrentHashMap<String, Stamps>();
+
+    static {
+        scan();
+        if( !"false".equals( System.getProperty("IMAGE_WATCH") ) ){
+            watch();
+        }
+    }
+
+    /**
+     * versionOf: the modification time of an image, which is also its version.
+     * @param kind - MENU_ITEM, MENU or RESTAURANT.
+     * @param id - the ID of the item, menu or restaurant.
+     * @return the time the image was last modified, or 0 if there is no image.
+     */
+    public static long versionOf( String kind, int id ){
+        return versionOf( kind, id, 0 );
+    }
+
+    /**
+     * versionOf: the modification time of a resized copy of an image.
+     * @param kind - MENU_ITEM, MENU or RESTAURANT.
+     * @param id - the ID of the item, menu or restaurant.
+     * @param width - the width of the copy, or 0 for the original.
+     * @return the time the copy was last modified, or 0 if there is no such copy.
+     */
+    public static long versionOf( String kind, int id, int width ){
+        if( id < 0 || id >= MAX_ID ){
+            return stat( fileName( kind, id, width ) );
+        }
+        return stampsFor( kind, width ).get( id );
+    }
+
+    /**
+     * fileName: the name of an image file.
+     * @param width - the width of a resized copy, or 0 for the original.
+     */
+    public static String fileName( String kind, int id, int width ){
+        return width == 0 ? kind + "." + id + ".jpg" : kind + "." + id + ".w" + width + ".jpg";
+    }
+
+    /**
+     * update: check one file again, after it was saved, changed or deleted.
+     * Files that are not named like a menu, menu item or restaurant image are ignored.
+     * @param filename - the file's name, without a directory.
+     */
+    public static void update( String filename ){
+        Matcher m = NAME.matcher( filename );
+        if( !m.matches() ){
+            return;
+        }
+        long id;
+        long width;
+        try {
+            id = Long.parseLong( m.group(2) );
+            width = m.group(3) == null ? 0 : Long.parseLong( m.group(3) );
+        } catch( NumberFormatException e ){
+            return;
+        }
+        if( id < MAX_ID && width <= Integer.MAX_VALUE ){
+            stampsFor( m.group(1), (int) width ).set( (int) id, stat( filename ) );
+        }
+    }
+
+    /**
+     * stat: the modification time of the first file with the name
+     * in the image directories, or 0 if there is none.
+     */
+    private static long stat( String filename ){
+        for( String directory : DIRECTORIES ){
+            long lastModified = new File( directory + filename ).lastModified();
+            if( lastModified != 0 ){
+                return lastModified;
+            }
+        }
+        return 0;
+    }
+
+    private static Stamps stampsFor( String kind, int width ){
+        String key = width == 0 ? kind : kind + ".w" + width;
+        return index.computeIfAbsent( key, k -> new Stamps() );
+    }
+
+    private static void scan(){
+        for( String directory : DIRECTORIES ){
+            String[] names = new File( directory ).list();
+            if( names == null ){
+                continue;
+            }
+            for( String name : names ){
+                update( name );
+            }
+        }
+    }
+
+    /**
+     * watch: keep the index up to date with changes made to the image directories
+     * by anything other than this server.
+     */
+    private static void watch(){
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            for( String directory : DIRECTORIES ){
+                Path path = Paths.get( directory );
+                if( path.toFile().isDirectory() ){
+                    path.register( watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+                }
+            }
+
+            Thread thread = new Thread( () -> {
+                while( true ){
+                    WatchKey key;
+                    try {
+                        key = watcher.take();
+                    } catch( InterruptedException e ){
+                        return;
+                    }
+                    for( WatchEvent<?> event : key.pollEvents() ){
+                        if( event.kind() == StandardWatchEventKinds.OVERFLOW ){
+                            scan();
+                        } else {
+                            update( event.context().toString() );
+                        }
+                    }
+                    key.reset();
+                }
+            }, "image-index-watcher" );
+            thread.setDaemon( true );
+            thread.start();
+        } catch( IOException ioe ){
+            System.out.printf("Failed to watch the image directories, " +
+                    "images changed outside the server will not be noticed.\n" +
+                    "Exception: %s\n", ioe.toString() );
+        }
+    }
+
+
+    /**
+     * Stamps: modification times indexed by ID.
+     * Readers never lock, the array is replaced with a bigger copy when it has to grow.
+     */
+    private static class Stamps {
+        private volatile long[] stamps = new long[ 1024 ];
+
+        long get( int id ){
+            long[] current = this.stamps;
+            return id < current.length ? current[ id ] : 0;
+        }
+
+        synchronized void set( int id, long stamp ){
+            long[] current = this.stamps;
+            if( id >= current.length ){
+                if( stamp == 0 ){
+                    return;
+                }
+                int size = current.length;
+                while( size <= id ){
+                    size *= 2;
+                }
+                current = Arrays.copyOf( current, Math.min( size, MAX_ID ) );
+            }
+            current[ id ] = stamp;
+            //publish the write, and the new array if it grew.
+            this.stamps = current;
+        }
+    }
+}
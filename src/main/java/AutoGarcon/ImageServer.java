@@ -0,0 +1,318 @@
+package AutoGarcon;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.HttpOutput;
+import spark.Request;
+import spark.Response;
+
+
+/**
+ * ImageServer: Serves image files for GET api/images/:filename.
+ *
+ * Files are memory mapped once and written to the client straight from the
+ * mapping, so an image is never copied onto the heap and serving one takes
+ * very little of an API thread's time. Mappings are kept for the
+ * IMAGE_MAP_MAX_FILES most recently used files, and a file is mapped again
+ * when it changes on disk.
+ *
+ * Clients can ask for part of a file with a Range header, and are answered
+ * 304 if their If-None-Match or If-Modified-Since shows they already have it.
+ * A URL with a v query parameter names one version of the file, and a file
+ * named by its hash in ImageStore never changes, so those are sent with long
+ * lived immutable cache headers. Otherwise clients check back each time,
+ * which is usually answered 304.
+ */
+public class ImageServer {
+
+    private static final int MAX_FILES = Integer.getInteger("IMAGE_MAP_MAX_FILES", 1000);
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "public, no-cache";
+
+    //access ordered, so the eldest entry is the least recently used.
+    private static final LinkedHashMap<String, Mapped> mapped = new LinkedHashMap<String, Mapped>( 16, 0.75f, true ){
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Mapped> eldest ){
+            return size() > MAX_FILES;
+        }
+    };
+
+    /**
+     * serve: answer a request for an image file.
+     * @param filename - the file's name, without a directory.
+     * @param req - the request being answered.
+     * @param res - the response to write to.
+     * @return an error message, or an empty body once the image has been sent.
+     */
+    public static Object serve( String filename, Request req, Response res ){
+        if( !isSafeName( filename ) ){
+            res.status(400);
+            return "Invalid image name.";
+        }
+
+        Mapped image;
+        try {
+            image = find( filename );
+        } catch( IOException ioe ){
+            System.out.printf("Failed to map the image %s.\n" +
+                    "Exception: %s\n", filename, ioe.toString() );
+            res.status(500);
+            return "Failed to read the image.";
+        }
+        if( image == null ){
+            res.status(404);
+            return "No such image.";
+        }
+
+        HttpServletResponse raw = res.raw();
+        raw.setHeader( "ETag", image.etag );
+        raw.setHeader( "Last-Modified", image.lastModifiedHeader );
+        raw.setHeader( "Accept-Ranges", "bytes" );
+        boolean immutable = req.queryParams("v") != null || ImageStore.isStored( filename );
+        raw.setHeader( "Cache-Control", immutable ? IMMUTABLE : REVALIDATE );
+
+        try {
+            if( isNotModified( image, req ) ){
+                raw.setStatus( 304 );
+                raw.flushBuffer();
+                return "";
+            }
+
+            long start = 0;
+            long end = image.length - 1;
+            String range = req.headers("Range");
+            if( range != null && rangeApplies( image, req.headers("If-Range") ) ){
+                long[] bounds = parseRange( range, image.length );
+                if( bounds == null ){
+                    raw.setStatus( 416 );
+                    raw.setHeader( "Content-Range", "bytes */" + image.length );
+                    raw.flushBuffer();
+                    return "";
+                }
+                if( bounds.length == 2 ){
+                    start = bounds[0];
+                    end = bounds[1];
+                    raw.setStatus( 206 );
+                    raw.setHeader( "Content-Range", "bytes " + start + "-" + end + "/" + image.length );
+                } else {
+                    raw.setStatus( 200 );
+                }
+            } else {
+                raw.setStatus( 200 );
+            }
+
+            raw.setContentType( image.contentType );
+            raw.setContentLengthLong( end - start + 1 );
+
+            ByteBuffer body = image.buffer.duplicate();
+            body.position( (int) start );
+            body.limit( (int) end + 1 );
+            OutputStream out = raw.getOutputStream();
+            if( out instanceof HttpOutput ){
+                //jetty writes the mapped buffer to the socket without copying it.
+                ( (HttpOutput) out ).sendContent( body );
+            } else {
+                Channels.newChannel( out ).write( body );
+                out.flush();
+            }
+        } catch( IOException ioe ){
+            //the client went away, there is nobody to tell.
+        }
+        return "";
+    }
+
+    /**
+     * isSafeName: only plain file names are served, never a path into another directory.
+     */
+    static boolean isSafeName( String filename ){
+        if( filename == null || filename.isEmpty() || filename.startsWith(".") ){
+            return false;
+        }
+        for( int i = 0; i < filename.length(); i++ ){
+            char c = filename.charAt(i);
+            boolean allowed = ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) ||
+                ( c >= '0' && c <= '9' ) || c == '.' || c == '-' || c == '_';
+            if( !allowed ){
+                return false;
+            }
+        }
+        return !filename.contains("..");
+    }
+
+    /**
+     * find: get the mapping of an image, mapping it if it is new or has changed.
+     * @return the mapped image, or null if there is no such file.
+     */
+    private static Mapped find( String filename ) throws IOException {
+        for( String directory : ImageIndex.DIRECTORIES ){
+            File file = new File( directory + filename );
+            long lastModified = file.lastModified();
+            //lastModified is 0 when the file does not exist.
+            if( lastModified == 0 || !file.isFile() ){
+                continue;
+            }
+
+            String key = file.getPath();
+            Mapped image;
+            synchronized( mapped ){
+                image = mapped.get( key );
+            }
+            if( image != null && image.lastModified == lastModified && image.length == file.length() ){
+                return image;
+            }
+
+            image = new Mapped( file, lastModified );
+            synchronized( mapped ){
+                mapped.put( key, image );
+            }
+            return image;
+        }
+        return null;
+    }
+
+    /**
+     * isNotModified: check the conditional headers against the file.
+     * If-None-Match wins over If-Modified-Since when both are sent.
+     */
+    private static boolean isNotModified( Mapped image, Request req ){
+        String ifNoneMatch = req.headers("If-None-Match");
+        if( ifNoneMatch != null ){
+            for( String tag : ifNoneMatch.split(",") ){
+                tag = tag.trim();
+                if( tag.startsWith("W/") ){
+                    tag = tag.substring( 2 );
+                }
+                if( tag.equals("*") || tag.equals( image.etag ) ){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Long since = parseDate( req.headers("If-Modified-Since") );
+        //http dates only have whole seconds.
+        return since != null && image.lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * rangeApplies: a Range header only counts if an If-Range sent with it
+     * still names the current file.
+     */
+    private static boolean rangeApplies( Mapped image, String ifRange ){
+        if( ifRange == null ){
+            return true;
+        }
+        if( ifRange.startsWith("\"") ){
+            return ifRange.equals( image.etag );
+        }
+        Long date = parseDate( ifRange );
+        return date != null && image.lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * parseRange: parse a Range header for one byte range.
+     * @return the first and last byte to send, an empty array to send the whole
+     * file because the header is not a single byte range, or null if the range
+     * is outside the file.
+     */
+    static long[] parseRange( String range, long length ){
+        if( !range.startsWith("bytes=") || range.indexOf(',') >= 0 ){
+            return new long[0];
+        }
+        String spec = range.substring( 6 ).trim();
+        int dash = spec.indexOf('-');
+        if( dash < 0 ){
+            return new long[0];
+        }
+
+        try {
+            long start;
+            long end;
+            if( dash == 0 ){
+                //bytes=-N is the last N bytes.
+                long suffix = Long.parseLong( spec.substring( 1 ) );
+                if( suffix <= 0 ){
+                    return null;
+                }
+                start = Math.max( 0, length - suffix );
+                end = length - 1;
+            } else {
+                start = Long.parseLong( spec.substring( 0, dash ) );
+                end = dash == spec.length() - 1 ? length - 1 : Long.parseLong( spec.substring( dash + 1 ) );
+                end = Math.min( end, length - 1 );
+            }
+            if( start >= length || start > end ){
+                return null;
+            }
+            return new long[]{ start, end };
+        } catch( NumberFormatException e ){
+            return new long[0];
+        }
+    }
+
+    private static Long parseDate( String header ){
+        if( header == null ){
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse( header, DateTimeFormatter.RFC_1123_DATE_TIME ).toInstant().toEpochMilli();
+        } catch( DateTimeParseException e ){
+            return null;
+        }
+    }
+
+    private static String contentTypeFor( String filename ){
+        String name = filename.toLowerCase();
+        if( name.endsWith(".jpg") || name.endsWith(".jpeg") ){
+            return "image/jpeg";
+        } else if( name.endsWith(".png") ){
+            return "image/png";
+        } else if( name.endsWith(".webp") ){
+            return "image/webp";
+        } else if( name.endsWith(".gif") ){
+            return "image/gif";
+        }
+        return "application/octet-stream";
+    }
+
+
+    /**
+     * Mapped: a memory mapped image file and the headers that describe it.
+     */
+    private static class Mapped {
+        final MappedByteBuffer buffer;
+        final long length;
+        final long lastModified;
+        final String lastModifiedHeader;
+        final String etag;
+        final String contentType;
+
+        Mapped( File file, long lastModified ) throws IOException {
+            try( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ){
+                this.length = channel.size();
+                //the mapping stays valid after the channel is closed.
+                this.buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, this.length );
+            }
+            this.lastModified = lastModified;
+            this.lastModifiedHeader = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli( lastModified ).atZone( ZoneOffset.UTC ) );
+            this.etag = "\"" + Long.toHexString( this.length ) + "-" + Long.toHexString( lastModified ) + "\"";
+            //a name can link to an image of another type, so the bytes are trusted over the name.
+            String extension = ImageStore.extensionOf( this.buffer.duplicate() );
+            this.contentType = contentTypeFor( extension != null ? extension : file.getName() );
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package AutoGarcon;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+
+/**
+ * ImageStore: Keeps one copy of each distinct uploaded image.
+ *
+ * Restaurants often upload the same photo for many items. Each upload is
+ * saved under the SHA-256 hash of its bytes in BLOB_PATH, once no matter how
+ * many times it is uploaded, with the extension of the type its first bytes
+ * show it to be, and the name it was uploaded as, for example
+ * menuitem.403.jpg, is made a symbolic link to it. Old URLs keep working
+ * through the links, and new URLs name the hash, so every item showing the
+ * same photo shares one URL, one file, one set of resized copies and one
+ * mapping in ImageServer. A hashed URL always names the same bytes, so it
+ * is cached by clients forever.
+ *
+ * An image that no name links to any more is deleted, along with its copies,
+ * after IMAGE_DELETE_DELAY_MS. Cached menus and restaurants keep handing out
+ * its URL until they are reloaded, so by default the delay is the longer of
+ * the two cache TTLs. Only names saved through this class are counted, links
+ * made by hand are not seen until the server restarts.
+ */
+public class ImageStore {
+
+    /**
+     * BLOB_PATH: where the images are kept, named by hash.
+     */
+    public static final String BLOB_PATH = ImageUtil.basePath + "blobs/";
+
+    private static final Pattern BLOB_NAME = Pattern.compile( "[0-9a-f]{64}(\\.w\\d+\\.jpg|\\.(jpg|png|gif|webp))" );
+
+    private static final long DELETE_DELAY_MS = Long.getLong("IMAGE_DELETE_DELAY_MS",
+            Math.max( MenuCache.TTL_MS, RestaurantCache.TTL_MS ) );
+
+    //name, relative to ImageUtil.basePath, to the file name of the image it links to.
+    private static final Map<String, String> references = new ConcurrentHashMap<String, String>();
+    //file name of each image to the number of names linking to it, changed under the references lock.
+    private static final Map<String, Integer> linkCounts = new HashMap<String, Integer>();
+    //file names of the resized copies of each image that are in place.
+    private static final Set<String> copies = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong duplicates = new AtomicLong();
+    private static final AtomicLong deleted = new AtomicLong();
+
+    private static final ScheduledExecutorService deleter = Executors.newSingleThreadScheduledExecutor( r -> {
+        Thread t = new Thread( r, "image-store-deleter" );
+        t.setDaemon( true );
+        return t;
+    });
+
+    static {
+        scan();
+    }
+
+    /**
+     * store: save an image and link a name to it.
+     * @param reference - the name to save the image as, relative to ImageUtil.basePath,
+     * a plain file name or one folder and a plain file name.
+     * @param is - an InputStream of image bytes.
+     * @return the file name the image is stored under in BLOB_PATH.
+     */
+    public static String store( String reference, InputStream is ) throws IOException {
+        if( !isSafeReference( reference ) ){
+            throw new IOException( "Invalid image name: " + reference );
+        }
+        Path blobs = Paths.get( BLOB_PATH );
+        Files.createDirectories( blobs );
+
+        //hash while copying to a temporary file, the hash is not known until the end.
+        Path temp = Files.createTempFile( blobs, "upload", ".tmp" );
+        String name;
+        try {
+            MessageDigest digest = sha256();
+            try( DigestInputStream in = new DigestInputStream( is, digest ) ){
+                Files.copy( in, temp, StandardCopyOption.REPLACE_EXISTING );
+            }
+            name = hex( digest.digest() ) + extensionOf( temp );
+        } catch( IOException ioe ){
+            Files.deleteIfExists( temp );
+            throw ioe;
+        }
+
+        //links and deletes happen under one lock, so an image is never deleted
+        //between being found and being linked to.
+        synchronized( references ){
+            Path blob = blobs.resolve( name );
+            if( Files.exists( blob ) ){
+                Files.delete( temp );
+                duplicates.incrementAndGet();
+            } else {
+                Files.move( temp, blob, StandardCopyOption.ATOMIC_MOVE );
+                ImageDerivatives.submit( blob.toFile(), copies::add );
+            }
+            link( reference, name );
+        }
+        return name;
+    }
+
+    /**
+     * store: save an image and link a name to it.
+     * @param reference - the name to save the image as, relative to ImageUtil.basePath.
+     * @param bytes - the image's bytes.
+     * @return the file name the image is stored under in BLOB_PATH.
+     */
+    public static String store( String reference, byte[] bytes ) throws IOException {
+        return store( reference, new ByteArrayInputStream( bytes ) );
+    }
+
+    /**
+     * storedAs: the file name of the image saved under a name.
+     * @param reference - the name, relative to ImageUtil.basePath.
+     * @return the image's file name in BLOB_PATH, or null if nothing was saved under the name.
+     */
+    public static String storedAs( String reference ){
+        return references.get( reference );
+    }
+
+    /**
+     * fileName: the file name of the smallest copy of an image at least as
+     * wide as asked for, or of the image itself if there is no such copy.
+     * Copies are always JPEGs, whatever the type of the image.
+     * @param stored - the image's file name in BLOB_PATH.
+     * @param width - the width the image will be shown at, or 0 for the image itself.
+     */
+    public static String fileName( String stored, int width ){
+        if( width > 0 ){
+            String hash = hashOf( stored );
+            for( int copyWidth : ImageDerivatives.WIDTHS ){
+                String copy = hash + ".w" + copyWidth + ".jpg";
+                if( copyWidth >= width && copies.contains( copy ) ){
+                    return copy;
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * isStored: check if a file name is an image, or a copy of one, named by its hash.
+     * Those never change, so they can be cached forever.
+     */
+    public static boolean isStored( String filename ){
+        return BLOB_NAME.matcher( filename ).matches();
+    }
+
+    /**
+     * getStats: the store's counters.
+     * @return the number of images and names, the uploads that were already stored,
+     * and the images deleted since the server started.
+     */
+    public static Map<String, Long> getStats(){
+        Map<String, Long> stats = new HashMap<String, Long>();
+        synchronized( references ){
+            stats.put( "images", (long) linkCounts.size() );
+        }
+        stats.put( "references", (long) references.size() );
+        stats.put( "duplicates", duplicates.get() );
+        stats.put( "deleted", deleted.get() );
+        return stats;
+    }
+
+    /**
+     * extensionOf: the file extension of an image's type, told from its first bytes.
+     * @param header - the start of the image, read from its position on.
+     * @return .jpg, .png, .gif or .webp, or null if the type is not one of those.
+     */
+    static String extensionOf( ByteBuffer header ){
+        byte[] start = new byte[ Math.min( 12, header.remaining() ) ];
+        header.get( start );
+        if( startsWith( start, 0, 0xFF, 0xD8, 0xFF ) ){
+            return ".jpg";
+        } else if( startsWith( start, 0, 0x89, 'P', 'N', 'G' ) ){
+            return ".png";
+        } else if( startsWith( start, 0, 'G', 'I', 'F', '8' ) ){
+            return ".gif";
+        } else if( startsWith( start, 0, 'R', 'I', 'F', 'F' ) && startsWith( start, 8, 'W', 'E', 'B', 'P' ) ){
+            return ".webp";
+        }
+        return null;
+    }
+
+    /**
+     * isSafeReference: names are a plain file name, or one folder and a plain
+     * file name for the old per menu folders, never a path out of ImageUtil.basePath.
+     */
+    static boolean isSafeReference( String reference ){
+        if( reference == null ){
+            return false;
+        }
+        int slash = reference.indexOf('/');
+        if( slash < 0 ){
+            return ImageServer.isSafeName( reference );
+        }
+        return ImageServer.isSafeName( reference.substring( 0, slash ) ) &&
+            ImageServer.isSafeName( reference.substring( slash + 1 ) );
+    }
+
+    /**
+     * link: point a name at an image, replacing whatever the name was.
+     * The old image is deleted later if nothing else links to it.
+     * Called under the references lock.
+     */
+    private static void link( String reference, String stored ) throws IOException {
+        Path path = Paths.get( ImageUtil.basePath, reference );
+        Path blob = Paths.get( BLOB_PATH, stored );
+        Path parent = path.toAbsolutePath().getParent();
+        Path temp = path.resolveSibling( path.getFileName() + ".link" );
+
+        Files.deleteIfExists( temp );
+        try {
+            Files.createSymbolicLink( temp, parent.relativize( blob.toAbsolutePath() ) );
+        } catch( UnsupportedOperationException e ){
+            //no links on this file system, so the name gets its own copy.
+            Files.copy( blob, temp );
+        }
+        //swap the name over in one step, so it is never missing.
+        Files.move( temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        String old = references.put( reference, stored );
+        if( old != null && old.equals( stored ) ){
+            return;
+        }
+        linkCounts.merge( stored, 1, Integer::sum );
+        if( old != null && linkCounts.merge( old, -1, Integer::sum ) == 0 ){
+            linkCounts.remove( old );
+            deleter.schedule( () -> deleteIfUnused( old ), DELETE_DELAY_MS, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * deleteIfUnused: delete an image and its copies, unless it was linked to
+     * again while waiting to be deleted.
+     */
+    private static void deleteIfUnused( String stored ){
+        synchronized( references ){
+            if( !linkCounts.containsKey( stored ) ){
+                delete( stored );
+            }
+        }
+    }
+
+    private static void delete( String stored ){
+        String hash = hashOf( stored );
+        try {
+            Files.deleteIfExists( Paths.get( BLOB_PATH, stored ) );
+            for( int width : ImageDerivatives.WIDTHS ){
+                String copy = hash + ".w" + width + ".jpg";
+                copies.remove( copy );
+                Files.deleteIfExists( Paths.get( BLOB_PATH, copy ) );
+            }
+            deleted.incrementAndGet();
+        } catch( IOException ioe ){
+            System.out.printf("Failed to delete the unused image %s.\n" +
+                    "Exception: %s\n", stored, ioe.toString() );
+        }
+    }
+
+    /**
+     * scan: find the links and copies saved before the server started.
+     * Names are in ImageUtil.basePath, or one folder down for the old per menu folders.
+     */
+    private static void scan(){
+        String[] names = new File( BLOB_PATH ).list();
+        if( names != null ){
+            for( String name : names ){
+                if( isStored( name ) && name.contains(".w") ){
+                    copies.add( name );
+                }
+            }
+        }
+
+        File base = new File( ImageUtil.basePath );
+        String[] entries = base.list();
+        if( entries == null ){
+            return;
+        }
+        for( String entry : entries ){
+            File file = new File( base, entry );
+            if( file.isDirectory() && !Files.isSymbolicLink( file.toPath() ) ){
+                String[] inner = file.list();
+                if( inner != null ){
+                    for( String name : inner ){
+                        readLink( entry + "/" + name );
+                    }
+                }
+            } else {
+                readLink( entry );
+            }
+        }
+    }
+
+    private static void readLink( String reference ){
+        Path path = Paths.get( ImageUtil.basePath, reference );
+        if( !Files.isSymbolicLink( path ) ){
+            return;
+        }
+        try {
+            String target = Files.readSymbolicLink( path ).getFileName().toString();
+            if( isStored( target ) && !target.contains(".w") ){
+                synchronized( references ){
+                    references.put( reference, target );
+                    linkCounts.merge( target, 1, Integer::sum );
+                }
+            }
+        } catch( IOException ioe ){
+            System.out.printf("Failed to read the image link %s.\n" +
+                    "Exception: %s\n", reference, ioe.toString() );
+        }
+    }
+
+    /**
+     * extensionOf: the extension to store an uploaded file under. Anything
+     * that is not a known image type is kept as .jpg, as every upload was before.
+     */
+    private static String extensionOf( Path upload ) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate( 12 );
+        try( FileChannel channel = FileChannel.open( upload, StandardOpenOption.READ ) ){
+            while( header.hasRemaining() ){
+                if( channel.read( header ) < 0 ){
+                    break;
+                }
+            }
+        }
+        header.flip();
+        String extension = extensionOf( header );
+        return extension != null ? extension : ".jpg";
+    }
+
+    private static boolean startsWith( byte[] bytes, int offset, int... expected ){
+        if( bytes.length < offset + expected.length ){
+            return false;
+        }
+        for( int i = 0; i < expected.length; i++ ){
+            if( ( bytes[ offset + i ] & 0xFF ) != expected[i] ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String hashOf( String stored ){
+        return stored.substring( 0, stored.indexOf('.') );
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch( NoSuchAlgorithmException e ){
+            //every java runtime has SHA-256.
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static String hex( byte[] hash ){
+        StringBuilder hex = new StringBuilder( hash.length * 2 );
+        for( byte b : hash ){
+            hex.append( String.format( "%02x", b ) );
+        }
+        return hex.toString();
+    }
+}
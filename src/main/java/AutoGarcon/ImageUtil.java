@@ -1,10 +1,7 @@
 package AutoGarcon; 
 import java.io.File;
-import java.io.FileOutputStream; 
 import java.io.IOException;
 import java.io.InputStream; 
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.Base64; 
 import com.google.gson.JsonElement; 
 import com.google.gson.JsonPrimitive;
@@ -28,16 +25,15 @@ public class ImageUtil {
 
     /**
      * saveImage: Saves an image file to the server given an input stream.
+     * The same image uploaded under many names is only kept once, see ImageStore. 
      * @param filename - the name to give the file. 
      * @param is - an InputStream of image bytes. 
      * @return True if saved correctly, false otherwise. 
      */
     public static boolean saveImage( String filename, InputStream is ){
-        String path = String.format( basePath + filename );
-        File f = new File( path ); 
-
         try{
-            Files.copy( is, f.toPath(), StandardCopyOption.REPLACE_EXISTING ); 
+            ImageStore.store( filename, is ); 
+            ImageIndex.update( filename ); 
             return true; 
         } catch( IOException ioe ){
             System.out.printf("IOException while trying to save an image.\n" + 
@@ -60,11 +56,13 @@ public class ImageUtil {
         String path = String.format( basePath + "%d/%d", menuID, menuItemID );
         createMenuFolder( menuID ); 
         File image = new File( path  ); 
-        FileOutputStream fos = null; 
 
         try{ 
-            fos = new FileOutputStream( image ); 
-            fos.write( bytes );
+            //the name the image URL is looked up by, and the old per menu folder. 
+            String filename = ImageIndex.fileName( ImageIndex.MENU_ITEM, menuItemID, 0 ); 
+            ImageStore.store( filename, bytes ); 
+            ImageIndex.update( filename ); 
+            ImageStore.store( menuID + "/" + menuItemID, bytes ); 
         } catch (IOException ioe){
             System.out.printf("IOException while trying to save an image.\n" + 
                     "Exception: %s\n", ioe.toString() );
@@ -101,19 +99,7 @@ public class ImageUtil {
      * @return - The autogarcon url for retreiving the specifed image from the API. 
      */
     public static String getMenuItemImageURL( int menuItemID ){
-
-        final String defaultMenuItemImage = "https://autogarcon.live/images/menuitem.jpg"; 
-        String url = String.format( "https://autogarcon.live/images/"
-                + "menuitem.%d.jpg",  menuItemID 
-        );
-        String path = String.format( "src/main/resources/public/images/menuitem.%d.jpg", menuItemID );
-        File f = new File( path ); 
-        if( f.exists() ){
-            return url; 
-        }
-        else {
-            return defaultMenuItemImage; 
-        }
+        return imageURL( ImageIndex.MENU_ITEM, menuItemID, "https://autogarcon.live/images/menuitem.jpg" ); 
     }
 
     /**
@@ -122,19 +108,7 @@ public class ImageUtil {
      * @return - The autogarcon url for retreiving the specifed image from the API. 
      */
     public static String getMenuImageURL( int menuID ){
-        final String defaultMenuImage = "https://autogarcon.live/images/menu.jpg"; 
-        String url = String.format( "https://autogarcon.live/images/"
-                + "menu.%d.jpg", menuID 
-        );
-        String path = String.format( "src/main/resources/public/images/menu.%d.jpg", menuID );
-
-        File f = new File( path ); 
-        if( f.exists() ){
-            return url; 
-        }
-        else {
-            return defaultMenuImage; 
-        }
+        return imageURL( ImageIndex.MENU, menuID, "https://autogarcon.live/images/menu.jpg" ); 
     }
 
     /**
@@ -143,22 +117,83 @@ public class ImageUtil {
      * @return - The autogarcon url for retreiving the specifed image from the API. 
      */
     public static String getRestaurantImageURL( int restaurantID ){
+        return imageURL( ImageIndex.RESTAURANT, restaurantID, "https://autogarcon.live/images/restaurant.jpg" ); 
+    }
+
+    /**
+     * getMenuItemImageURL: gets the URL of a copy of a menu item's image 
+     * that is at least as wide as it will be shown. 
+     * @param menuItemID - the itemID of the image that you want to a URL for. 
+     * @param width - the width the image will be shown at. 
+     */
+    public static String getMenuItemImageURL( int menuItemID, int width ){
+        return imageURL( ImageIndex.MENU_ITEM, menuItemID, width, "https://autogarcon.live/images/menuitem.jpg" ); 
+    }
+
+    /**
+     * getMenuImageURL: gets the URL of a copy of a menu's image 
+     * that is at least as wide as it will be shown. 
+     * @param menuID - the menuID of the image you want a URL for. 
+     * @param width - the width the image will be shown at. 
+     */
+    public static String getMenuImageURL( int menuID, int width ){
+        return imageURL( ImageIndex.MENU, menuID, width, "https://autogarcon.live/images/menu.jpg" ); 
+    }
 
-        final String defaultRestaurantImage = "https://autogarcon.live/images/restaurant.jpg"; 
-        String url = String.format( "https://autogarcon.live/images/"
-                + "restaurant.%d.jpg", restaurantID 
-        );
+    /**
+     * getRestaurantImageURL: gets the URL of a copy of a restaurant's image 
+     * that is at least as wide as it will be shown. 
+     * @param restaurantID - the restaurantID of the image you want a URL for. 
+     * @param width - the width the image will be shown at. 
+     */
+    public static String getRestaurantImageURL( int restaurantID, int width ){
+        return imageURL( ImageIndex.RESTAURANT, restaurantID, width, "https://autogarcon.live/images/restaurant.jpg" ); 
+    }
 
-        String path = String.format( "src/main/resources/public/images/restaurant.%d.jpg", restaurantID);
+    /**
+     * imageURL: gets the URL of an image, looked up in the ImageIndex 
+     * instead of on the file system. 
+     * The URL carries the image's version, so it changes when the image does. 
+     * @param kind - the kind of image, see ImageIndex. 
+     * @param id - the id of the menu item, menu or restaurant. 
+     * @param defaultImage - the URL to use if there is no image. 
+     */
+    private static String imageURL( String kind, int id, String defaultImage ){
+        return imageURL( kind, id, 0, defaultImage ); 
+    }
 
-        File f = new File( path ); 
+    /**
+     * imageURL: gets the URL of the smallest copy of an image made by ImageDerivatives 
+     * that is at least as wide as asked for. 
+     * Uploaded images are named by their hash in ImageStore, so every item with the same 
+     * image gets the same URL. Other images are looked up in the ImageIndex, where copies 
+     * older than the image are left out, they are of an image that was replaced. 
+     * The original is used if there is no such copy. 
+     * @param width - the width the image will be shown at, or 0 for the original. 
+     */
+    private static String imageURL( String kind, int id, int width, String defaultImage ){
+        String stored = ImageStore.storedAs( ImageIndex.fileName( kind, id, 0 ) ); 
+        if( stored != null ){
+            return "https://autogarcon.live/api/images/" + ImageStore.fileName( stored, width ); 
+        }
 
-        if( f.exists() ){
-            return url; 
+        long version = ImageIndex.versionOf( kind, id ); 
+        if( version == 0 ){
+            return defaultImage; 
         }
-        else {
-            return defaultRestaurantImage; 
+        if( width > 0 ){
+            for( int copyWidth : ImageDerivatives.WIDTHS ){
+                if( copyWidth < width ){
+                    continue; 
+                }
+                long copyVersion = ImageIndex.versionOf( kind, id, copyWidth ); 
+                if( copyVersion >= version ){
+                    return "https://autogarcon.live/api/images/" + 
+                        ImageIndex.fileName( kind, id, copyWidth ) + "?v=" + copyVersion; 
+                }
+            }
         }
+        return "https://autogarcon.live/api/images/" + ImageIndex.fileName( kind, id, 0 ) + "?v=" + version; 
     }
 
 
@@ -0,0 +1,139 @@
+package AutoGarcon;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * ItemNameCache: An in memory dictionary from menu item ID to item name.
+ *
+ * Order items only store the menu item ID, so every order line
+ * used to look its name up with its own query. Instead the names for a whole
+ * restaurant are loaded in one query the first time that restaurant's orders are read,
+ * and any ID that is still missing after that is looked up once and remembered.
+ *
+ * Names are kept for ITEM_NAME_CACHE_TTL_MS, and a restaurant is loaded again
+ * when its menus change through the API, so an item renamed some other way
+ * shows its new name once the TTL runs out. At most ITEM_NAME_CACHE_MAX_ITEMS
+ * names are kept, the least recently used are dropped first.
+ */
+public class ItemNameCache {
+
+    private static final int MAX_ITEMS = Integer.getInteger("ITEM_NAME_CACHE_MAX_ITEMS", 100000);
+    private static final long TTL_MS = Long.getLong("ITEM_NAME_CACHE_TTL_MS", 10 * 60 * 1000L);
+
+    //access ordered, so the eldest entry is the least recently used.
+    private static final LinkedHashMap<Integer, Name> names = new LinkedHashMap<Integer, Name>( 16, 0.75f, true ){
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Integer, Name> eldest ){
+            return size() > MAX_ITEMS;
+        }
+    };
+    //restaurant ID to when its names stop counting as loaded.
+    private static final Map<Integer, Long> primedUntil = new ConcurrentHashMap<Integer, Long>();
+
+    /**
+     * prime: load the names of every menu item at a restaurant in one query.
+     * Does nothing if the restaurant was loaded within the TTL.
+     * @param restaurantID - the restaurant to load item names for.
+     */
+    public static void prime( int restaurantID ){
+        Long until = primedUntil.get( restaurantID );
+        if( until != null && until > System.currentTimeMillis() ){
+            return;
+        }
+
+        Map<Integer, ArrayList<Map.Entry<Integer, String>>> rows = DBUtil.getMenuItemsForRestaurant( restaurantID,
+                rs -> new AbstractMap.SimpleImmutableEntry<Integer, String>( rs.getInt("itemID"), rs.getString("itemName") ) );
+
+        //leave it unprimed so the next call tries again.
+        if( rows == null ){
+            return;
+        }
+
+        for( ArrayList<Map.Entry<Integer, String>> menu : rows.values() ){
+            for( Map.Entry<Integer, String> item : menu ){
+                if( item.getValue() != null ){
+                    put( item.getKey(), item.getValue() );
+                }
+            }
+        }
+        primedUntil.put( restaurantID, System.currentTimeMillis() + TTL_MS );
+    }
+
+    /**
+     * invalidate: load a restaurant's names again the next time its orders are read.
+     * Called whenever the restaurant's menus change.
+     * @param restaurantID - the restaurant whose menus changed.
+     */
+    public static void invalidate( int restaurantID ){
+        primedUntil.remove( restaurantID );
+    }
+
+    /**
+     * remember: record the name of a menu item that was just saved.
+     * @param menuItemID - the ID of the menu item.
+     * @param name - the item's name.
+     */
+    public static void remember( int menuItemID, String name ){
+        if( menuItemID > 0 && name != null ){
+            put( menuItemID, name );
+        }
+    }
+
+    /**
+     * nameFor: get a menu item's name, querying the database only on a miss.
+     * @param menuItemID - the ID of the menu item.
+     * @return the item's name, or "" if there is no such item.
+     */
+    public static String nameFor( int menuItemID ){
+        Name cached;
+        synchronized( names ){
+            cached = names.get( menuItemID );
+        }
+        if( cached != null && cached.expiresAt > System.currentTimeMillis() ){
+            return cached.name;
+        }
+
+        String name = DBUtil.getItemNameFromID( menuItemID );
+        //don't remember misses, the item may not have been found because of a failed query.
+        if( !name.isEmpty() ){
+            put( menuItemID, name );
+        }
+        return name;
+    }
+
+    private static void put( int menuItemID, String name ){
+        Name entry = new Name( name, System.currentTimeMillis() + TTL_MS );
+        synchronized( names ){
+            names.put( menuItemID, entry );
+        }
+    }
+
+    /**
+     * resolveNames: fill in the item name of every order item in the list.
+     * @param items - order items read from the database.
+     */
+    public static void resolveNames( List<OrderItem> items ){
+        for( OrderItem item : items ){
+            item.setItemName( nameFor( item.getMenuItemID() ) );
+        }
+    }
+
+
+    /**
+     * Name: a cached item name, and when it has to be looked up again.
+     */
+    private static class Name {
+        final String name;
+        final long expiresAt;
+
+        Name( String name, long expiresAt ){
+            this.name = name;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
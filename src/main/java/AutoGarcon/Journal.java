@@ -0,0 +1,272 @@
+package AutoGarcon;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Journal: An append only log of records kept on local disk.
+ *
+ * Each record is one line of text, usually JSON.
+ * append() only writes into a buffer, a background thread
+ * flushes the buffer and syncs the file to disk every few milliseconds,
+ * so many appends share one fsync.
+ * At startup replay() reads the records back, a partly written last
+ * line from a crash is dropped.
+ * rewrite() replaces the whole log with a compacted set of records,
+ * it writes a new file and renames it over the old one so a crash
+ * part way through leaves the old log in place.
+ *
+ * Records are numbered as they are appended, and sync() only counts
+ * them as on disk once the fsync covering them has returned, so a caller
+ * of sync() never returns early because another thread's sync is still
+ * in progress.
+ *
+ * Settings are read from System Properties, all are optional:
+ *  JOURNAL_DIR - directory the journal files are kept in.
+ *  JOURNAL_SYNC_INTERVAL_MS - how often buffered records are synced to disk.
+ */
+public class Journal {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long syncIntervalMs;
+    private final ScheduledExecutorService syncer;
+
+    private FileOutputStream out;
+    private Writer writer;
+    private long recordCount;
+
+    //records appended since the journal was opened, and how many of them are known to be on disk.
+    private long appended;
+    private long synced;
+    //changes every time rewrite() swaps in a new file.
+    private long generation;
+
+    /**
+     * Journal: open the journal with the given name, creating it if needed.
+     * @param name - the journal's file name, without a directory.
+     * @throws IOException if the journal file could not be opened.
+     */
+    public Journal( String name ) throws IOException {
+        File dir = new File( System.getProperty("JOURNAL_DIR", "journal") );
+        if( !dir.isDirectory() && !dir.mkdirs() ){
+            throw new IOException( "Could not create the journal directory " + dir.getAbsolutePath() );
+        }
+        this.file = new File( dir, name + ".log" );
+        this.syncIntervalMs = Long.getLong("JOURNAL_SYNC_INTERVAL_MS", 20L);
+        openForAppend();
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "journal-sync-" + name );
+            t.setDaemon( true );
+            return t;
+        });
+        this.syncer.scheduleWithFixedDelay( this::syncQuietly,
+                this.syncIntervalMs, this.syncIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    private void openForAppend() throws IOException {
+        this.out = new FileOutputStream( this.file, true );
+        this.writer = new BufferedWriter(
+                new OutputStreamWriter( this.out, StandardCharsets.UTF_8 ), BUFFER_SIZE );
+    }
+
+    /**
+     * replay: pass every complete record in the journal to the handler, oldest first.
+     * Call before appending anything.
+     * @param handler - applies one record.
+     * @return the number of records replayed.
+     * @throws IOException if the journal could not be read.
+     */
+    public synchronized long replay( Consumer<String> handler ) throws IOException {
+        long count = 0;
+        long goodLength = 0;
+        long position = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] chunk = new byte[ BUFFER_SIZE ];
+
+        try( FileInputStream in = new FileInputStream( this.file ) ){
+            int read;
+            while( ( read = in.read( chunk ) ) != -1 ){
+                int lineStart = 0;
+                for( int i = 0; i < read; i++ ){
+                    if( chunk[i] != '\n' ){
+                        continue;
+                    }
+                    line.write( chunk, lineStart, i - lineStart );
+                    if( line.size() > 0 ){
+                        handler.accept( new String( line.toByteArray(), StandardCharsets.UTF_8 ) );
+                        count++;
+                    }
+                    line.reset();
+                    lineStart = i + 1;
+                    goodLength = position + i + 1;
+                }
+                line.write( chunk, lineStart, read - lineStart );
+                position += read;
+            }
+        }
+
+        //cut off a record that was only partly written before a crash.
+        if( goodLength < position ){
+            System.out.printf("Dropping a partly written record at the end of journal %s.\n", this.file.getName() );
+            try( FileChannel channel = new FileOutputStream( this.file, true ).getChannel() ){
+                channel.truncate( goodLength );
+            }
+        }
+        this.recordCount = count;
+        return count;
+    }
+
+    /**
+     * append: add a record to the end of the journal.
+     * The record is on disk after the next sync, or after calling sync().
+     * @param record - a single line of text, it may not contain newlines.
+     * @throws IOException if the record could not be written, it is not in the journal.
+     */
+    public synchronized void append( String record ) throws IOException {
+        this.writer.write( record );
+        this.writer.write( '\n' );
+        this.appended++;
+        this.recordCount++;
+    }
+
+    /**
+     * sync: write any buffered records and force them to disk.
+     * Returns once every record appended before the call is on disk.
+     * @throws IOException if the records could not be written.
+     */
+    public void sync() throws IOException {
+        while( true ){
+            long target;
+            long syncGeneration;
+            FileOutputStream stream;
+            synchronized( this ){
+                if( this.synced >= this.appended ){
+                    return;
+                }
+                this.writer.flush();
+                target = this.appended;
+                syncGeneration = this.generation;
+                stream = this.out;
+            }
+
+            //appends can keep filling the buffer while the disk catches up.
+            boolean swapped = false;
+            try {
+                stream.getChannel().force( false );
+            } catch( IOException e ){
+                synchronized( this ){
+                    swapped = this.generation != syncGeneration;
+                }
+                if( !swapped ){
+                    throw e;
+                }
+            }
+            if( swapped ){
+                //rewrite() closed the stream under us, check again against the new file.
+                continue;
+            }
+
+            synchronized( this ){
+                if( this.generation == syncGeneration && target > this.synced ){
+                    this.synced = target;
+                }
+            }
+            return;
+        }
+    }
+
+    private void syncQuietly(){
+        try {
+            sync();
+        } catch( IOException e ){
+            System.out.printf("Failed to sync journal %s.\n" +
+                    "Exception: %s\n", this.file.getName(), e.toString() );
+        }
+    }
+
+    /**
+     * rewrite: replace everything in the journal with the given records.
+     * Callers must make sure nothing is appended while this runs,
+     * or those records may be lost.
+     * @param records - the records that recreate the current state.
+     * @throws IOException if the new journal could not be written,
+     * the old journal is left as it was.
+     */
+    public synchronized void rewrite( List<String> records ) throws IOException {
+        File tmp = new File( this.file.getPath() + ".tmp" );
+        try( FileOutputStream tmpOut = new FileOutputStream( tmp, false ) ){
+            Writer tmpWriter = new BufferedWriter(
+                    new OutputStreamWriter( tmpOut, StandardCharsets.UTF_8 ), BUFFER_SIZE );
+            for( String record : records ){
+                tmpWriter.write( record );
+                tmpWriter.write( '\n' );
+            }
+            tmpWriter.flush();
+            tmpOut.getChannel().force( true );
+        }
+
+        this.writer.flush();
+        this.out.close();
+        this.generation++;
+        try {
+            Files.move( tmp.toPath(), this.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            openForAppend();
+        }
+        this.recordCount = records.size();
+
+        //the rename is only durable once the directory itself is synced.
+        syncDirectory();
+        this.synced = this.appended;
+    }
+
+    private void syncDirectory() throws IOException {
+        try( FileChannel dir = FileChannel.open( this.file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ ) ){
+            dir.force( true );
+        }
+    }
+
+    /**
+     * getRecordCount: the number of records in the journal,
+     * used to decide when it is worth compacting.
+     */
+    public synchronized long getRecordCount(){
+        return this.recordCount;
+    }
+
+    /**
+     * close: sync any buffered records and close the file.
+     */
+    public void close(){
+        this.syncer.shutdownNow();
+        syncQuietly();
+        synchronized( this ){
+            try {
+                this.writer.close();
+            } catch( IOException e ){
+                System.out.printf("Failed to close journal %s.\n" +
+                        "Exception: %s\n", this.file.getName(), e.toString() );
+            }
+        }
+    }
+}
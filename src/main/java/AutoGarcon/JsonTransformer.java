@@ -1,6 +1,13 @@
 package AutoGarcon; 
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletResponse;
+import spark.Response;
 import spark.ResponseTransformer;
 
 /*
@@ -8,11 +15,54 @@ import spark.ResponseTransformer;
  * Feilds marked transient or synthetic are not included in JSON. 
  * As well as any Annonymous classes or local classes. 
  *
+ * Gson is thread safe and caches the type adapters it builds for each class,
+ * so the whole server shares one instance from gson(),
+ * and the adapters for the common types are built once at startup.
  */
 public class JsonTransformer implements ResponseTransformer {
-    private Gson gson = new Gson(); 
+
+    private static final Gson gson = new Gson();
+
+    static {
+        //build the reflective adapters now instead of during the first requests.
+        Class<?>[] types = { Menu.class, MenuItem.class, TimeRange.class, Order.class, OrderItem.class,
+            Restaurant.class, Restaurants.class, Table.class, Tables.class, User.class };
+        for( Class<?> type : types ){
+            gson.getAdapter( type );
+        }
+    }
+
+    /**
+     * gson: the Gson instance shared by the whole server.
+     */
+    public static Gson gson(){
+        return gson;
+    }
 
     public String render( Object model ){
         return gson.toJson(model); 
     }
+
+    /**
+     * stream: write an object as JSON straight to the response's outputstream,
+     * without building the whole JSON string first.
+     * The response is committed afterwards, so Spark does not write a body of its own.
+     * @param model - the object to write.
+     * @param res - the response to write to.
+     * @return an empty body for Spark, which it does not send.
+     */
+    public static Object stream( Object model, Response res ){
+        HttpServletResponse raw = res.raw();
+        raw.setContentType( "application/json; charset=utf-8" );
+
+        try {
+            JsonWriter writer = new JsonWriter( new BufferedWriter(
+                    new OutputStreamWriter( raw.getOutputStream(), StandardCharsets.UTF_8 ) ) );
+            gson.toJson( model, model.getClass(), writer );
+            writer.flush();
+        } catch( IOException ioe ){
+            //the client went away, there is nobody to tell.
+        }
+        return "";
+    }
 }
@@ -0,0 +1,318 @@
+package AutoGarcon;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * KitchenFeed: Pushes order events to kitchen screens with Server-Sent Events.
+ *
+ * Instead of polling every order for the restaurant, a kitchen screen opens
+ * GET api/restaurant/:restaurantid/order/feed once and is sent an event
+ * whenever an order is placed or marked ready, or a queued order could not be saved.
+ *
+ * Each restaurant keeps its last FEED_BUFFER_SIZE events. A screen that
+ * reconnects with a Last-Event-ID header is sent the events it missed,
+ * if they are too old, or from before a restart, it is sent a "reset" event
+ * and should reload the full order list once.
+ *
+ * Event IDs look like bootID-channel-sequence, the bootID changes every time the
+ * server starts so IDs from a previous run are never mistaken for current ones.
+ *
+ * A restaurant's channel is made when a screen first subscribes, events for
+ * restaurants nobody is watching are not kept. Once its last screen leaves,
+ * a channel is kept FEED_IDLE_MS (default 5 minutes) so the screen can
+ * reconnect and catch up, then it is dropped. A screen that comes back after
+ * that is sent a "reset", the new channel has a different number.
+ *
+ * Every connected screen holds one of the web server's threads, so at most
+ * FEED_MAX_SUBSCRIBERS (default 50) screens are connected at once.
+ */
+public class KitchenFeed {
+
+    public static final String ORDER_PLACED = "order-placed";
+    public static final String ORDER_READY = "order-ready";
+    public static final String ORDER_FAILED = "order-failed";
+    public static final String RESET = "reset";
+
+    private static final long BOOT_ID = System.currentTimeMillis();
+    private static final int BUFFER_SIZE = Integer.getInteger("FEED_BUFFER_SIZE", 256);
+    private static final int SUBSCRIBER_QUEUE_SIZE = 1024;
+    private static final long KEEPALIVE_MS = 15000;
+    private static final long IDLE_MS = Long.getLong("FEED_IDLE_MS", 5 * 60 * 1000L);
+    private static final int MAX_SUBSCRIBERS = Integer.getInteger("FEED_MAX_SUBSCRIBERS", 50);
+    private static final Gson gson = JsonTransformer.gson();
+
+    private static final Map<Integer, Channel> channels = new ConcurrentHashMap<Integer, Channel>();
+    private static final AtomicLong channelNumbers = new AtomicLong();
+    private static final Semaphore connections = new Semaphore( MAX_SUBSCRIBERS );
+
+    static {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "kitchen-feed-sweeper" );
+            t.setDaemon( true );
+            return t;
+        });
+        long period = Math.max( 1000, IDLE_MS / 2 );
+        sweeper.scheduleWithFixedDelay( KitchenFeed::dropIdleChannels, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * publish: send an event to the restaurant's screens, if any are watching.
+     */
+    private static void publish( int restaurantID, String type, String data ){
+        Channel channel = channels.get( restaurantID );
+        if( channel != null ){
+            channel.publish( type, data );
+        }
+    }
+
+    /**
+     * dropIdleChannels: drop the channels no screen has watched for FEED_IDLE_MS.
+     */
+    private static void dropIdleChannels(){
+        long cutoff = System.currentTimeMillis() - IDLE_MS;
+        for( Map.Entry<Integer, Channel> entry : channels.entrySet() ){
+            if( entry.getValue().closeIfIdleSince( cutoff ) ){
+                channels.remove( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * orderPlaced: tell the restaurant's kitchen about a new order.
+     * @param restaurantID - the restaurant the order was placed at.
+     * @param order - the saved order, including its items.
+     */
+    public static void orderPlaced( int restaurantID, Order order ){
+        publish( restaurantID, ORDER_PLACED, gson.toJson( order ) );
+    }
+
+    /**
+     * orderReady: tell the restaurant's kitchen an order was marked ready.
+     * @param restaurantID - the restaurant the order was placed at.
+     * @param orderID - the order that is now ready.
+     */
+    public static void orderReady( int restaurantID, int orderID ){
+        Map<String, Integer> data = new HashMap<String, Integer>();
+        data.put( "orderID", orderID );
+        publish( restaurantID, ORDER_READY, gson.toJson( data ) );
+    }
+
+    /**
+     * orderFailed: tell the restaurant's kitchen a submitted order could not be saved.
+     * @param restaurantID - the restaurant the order was placed at.
+     * @param handle - the handle the order was submitted under.
+     * @param order - the order, including its items.
+     * @param error - why it could not be saved.
+     */
+    public static void orderFailed( int restaurantID, String handle, Order order, String error ){
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put( "handle", handle );
+        data.put( "error", error );
+        data.put( "order", order );
+        publish( restaurantID, ORDER_FAILED, gson.toJson( data ) );
+    }
+
+    /**
+     * stream: send the restaurant's events to a client until it disconnects.
+     * Blocks the calling thread for as long as the client is connected.
+     * @param restaurantID - the restaurant to send events for.
+     * @param lastEventID - the Last-Event-ID the client sent, or null for a new client.
+     * @param out - the response's output stream.
+     * @return false, without writing anything, if FEED_MAX_SUBSCRIBERS clients are already connected.
+     * @throws IOException once the client has gone away.
+     */
+    public static boolean stream( int restaurantID, String lastEventID, OutputStream out ) throws IOException {
+        if( !connections.tryAcquire() ){
+            return false;
+        }
+        try {
+            streamTo( restaurantID, lastEventID, out );
+        } finally {
+            connections.release();
+        }
+        return true;
+    }
+
+    private static void streamTo( int restaurantID, String lastEventID, OutputStream out ) throws IOException {
+        Subscriber subscriber = new Subscriber();
+        Channel channel;
+        List<Event> missed;
+        //subscribe and read the backlog together, so no event is missed or sent twice.
+        //a channel dropped by the sweeper in the meantime refuses, so make a new one.
+        do {
+            channel = channels.computeIfAbsent( restaurantID, id -> new Channel() );
+            missed = channel.subscribe( subscriber, lastEventID );
+        } while( missed == null );
+
+        try {
+            for( Event event : missed ){
+                write( out, event );
+            }
+            out.flush();
+
+            while( !subscriber.overflowed ){
+                Event event = subscriber.queue.poll( KEEPALIVE_MS, TimeUnit.MILLISECONDS );
+                if( event == null ){
+                    //a comment line, it keeps proxies from timing out and finds dead connections.
+                    out.write( ":\n\n".getBytes( StandardCharsets.UTF_8 ) );
+                } else {
+                    write( out, event );
+                }
+                out.flush();
+            }
+        } catch( InterruptedException e ){
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.unsubscribe( subscriber );
+        }
+    }
+
+    private static void write( OutputStream out, Event event ) throws IOException {
+        String frame = String.format( "id: %s\nevent: %s\ndata: %s\n\n", event.id, event.type, event.data );
+        out.write( frame.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+    /**
+     * Event: one message sent to kitchen screens.
+     */
+    private static class Event {
+        final long sequence;
+        final String id;
+        final String type;
+        final String data;
+
+        Event( long channel, long sequence, String type, String data ){
+            this.sequence = sequence;
+            this.id = BOOT_ID + "-" + channel + "-" + sequence;
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Subscriber: one connected client and the events waiting to be sent to it.
+     * A client that falls too far behind is dropped, and can catch up
+     * by reconnecting with its Last-Event-ID.
+     */
+    private static class Subscriber {
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>( SUBSCRIBER_QUEUE_SIZE );
+        volatile boolean overflowed;
+
+        void offer( Event event ){
+            if( !this.queue.offer( event ) ){
+                this.overflowed = true;
+            }
+        }
+    }
+
+    /**
+     * Channel: the recent events and connected clients for one restaurant.
+     */
+    private static class Channel {
+        private final long number = channelNumbers.incrementAndGet();
+        private final ArrayDeque<Event> recent = new ArrayDeque<Event>();
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private long nextSequence = 1;
+        private long idleSince = System.currentTimeMillis();
+        private boolean closed;
+
+        synchronized void publish( String type, String data ){
+            Event event = new Event( this.number, this.nextSequence++, type, data );
+            this.recent.addLast( event );
+            if( this.recent.size() > BUFFER_SIZE ){
+                this.recent.removeFirst();
+            }
+            for( Subscriber subscriber : this.subscribers ){
+                subscriber.offer( event );
+            }
+        }
+
+        /**
+         * subscribe: start sending new events to the subscriber.
+         * @return the events the client missed since lastEventID,
+         * or null if the channel was dropped and a new one is needed.
+         */
+        synchronized List<Event> subscribe( Subscriber subscriber, String lastEventID ){
+            if( this.closed ){
+                return null;
+            }
+            List<Event> missed = new ArrayList<Event>();
+            this.subscribers.add( subscriber );
+            if( lastEventID == null || lastEventID.isEmpty() ){
+                return missed;
+            }
+
+            long after = sequenceOf( lastEventID, this.number );
+            Event oldest = this.recent.peekFirst();
+            long newest = this.nextSequence - 1;
+            boolean coveredByBuffer = oldest == null ? after == newest : after >= oldest.sequence - 1;
+            if( after < 0 || after > newest || !coveredByBuffer ){
+                missed.add( new Event( this.number, newest, RESET, "{}" ) );
+                return missed;
+            }
+
+            for( Event event : this.recent ){
+                if( event.sequence > after ){
+                    missed.add( event );
+                }
+            }
+            return missed;
+        }
+
+        synchronized void unsubscribe( Subscriber subscriber ){
+            this.subscribers.remove( subscriber );
+            if( this.subscribers.isEmpty() ){
+                this.idleSince = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * closeIfIdleSince: refuse new subscribers if no one has watched
+         * the channel since the cutoff, so it can be dropped.
+         * @return true if the channel is closed.
+         */
+        synchronized boolean closeIfIdleSince( long cutoff ){
+            if( this.subscribers.isEmpty() && this.idleSince < cutoff ){
+                this.closed = true;
+            }
+            return this.closed;
+        }
+
+        /**
+         * sequenceOf: the sequence number from an event ID, or -1 if it is
+         * malformed, from a previous run of the server, or from another channel.
+         */
+        private static long sequenceOf( String eventID, long channel ){
+            String[] parts = eventID.split( "-" );
+            if( parts.length != 3 ){
+                return -1;
+            }
+            try {
+                long boot = Long.parseLong( parts[0] );
+                long number = Long.parseLong( parts[1] );
+                long sequence = Long.parseLong( parts[2] );
+                return boot == BOOT_ID && number == channel ? sequence : -1;
+            } catch( NumberFormatException e ){
+                return -1;
+            }
+        }
+    }
+}
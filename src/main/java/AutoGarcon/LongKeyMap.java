@@ -0,0 +1,284 @@
+package AutoGarcon;
+import java.util.function.UnaryOperator;
+
+
+/**
+ * LongKeyMap: A thread safe hash map from primitive long keys to values.
+ *
+ * Keys are stored as plain longs in open addressing tables, so looking
+ * a key up never allocates a key object. The map is split into stripes,
+ * each with its own table and lock, so threads working on different keys
+ * rarely wait on each other. Every operation on a key is atomic.
+ *
+ * Tables use linear probing, and removal shifts later entries back
+ * instead of leaving tombstones, so probe chains stay short.
+ */
+public class LongKeyMap<V> {
+
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Stripe<V>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public LongKeyMap(){
+        this.stripes = (Stripe<V>[]) new Stripe<?>[ STRIPES ];
+        for( int i = 0; i < STRIPES; i++ ){
+            this.stripes[i] = new Stripe<V>();
+        }
+    }
+
+    /**
+     * mix: spread the bits of a key so sequential keys land far apart.
+     * This is the finalizer step of MurmurHash3.
+     */
+    private static long mix( long key ){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private Stripe<V> stripeFor( long hash ){
+        //the low bits pick the slot within a stripe, so use the high bits here.
+        return this.stripes[ (int) ( hash >>> 60 ) & ( STRIPES - 1 ) ];
+    }
+
+    public V get( long key ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            int slot = stripe.find( key, hash );
+            return slot < 0 ? null : stripe.values[ slot ];
+        }
+    }
+
+    /**
+     * put: set the value for a key.
+     * @return the previous value, or null if there was none.
+     */
+    public V put( long key, V value ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            return stripe.put( key, hash, value, false );
+        }
+    }
+
+    /**
+     * putIfAbsent: set the value for a key only if it has none.
+     * @return the current value, or null if the new value was set.
+     */
+    public V putIfAbsent( long key, V value ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            return stripe.put( key, hash, value, true );
+        }
+    }
+
+    /**
+     * remove: remove a key.
+     * @return the removed value, or null if there was none.
+     */
+    public V remove( long key ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            int slot = stripe.find( key, hash );
+            if( slot < 0 ){
+                return null;
+            }
+            V old = stripe.values[ slot ];
+            stripe.removeAt( slot );
+            return old;
+        }
+    }
+
+    /**
+     * computeIfPresent: replace the value for a key with the result of a function,
+     * while no other thread can touch that key.
+     * If the function returns null the key is removed.
+     * @return the new value, or null if the key was not present or was removed.
+     */
+    public V computeIfPresent( long key, UnaryOperator<V> remapper ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            int slot = stripe.find( key, hash );
+            if( slot < 0 ){
+                return null;
+            }
+            V updated = remapper.apply( stripe.values[ slot ] );
+            if( updated == null ){
+                stripe.removeAt( slot );
+            } else {
+                stripe.values[ slot ] = updated;
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * compute: replace the value for a key with the result of a function,
+     * while no other thread can touch that key.
+     * The function is passed null if the key is not present,
+     * and the key is removed if it returns null.
+     * @return the new value, or null if there is none.
+     */
+    public V compute( long key, UnaryOperator<V> remapper ){
+        long hash = mix( key );
+        Stripe<V> stripe = stripeFor( hash );
+        synchronized( stripe ){
+            int slot = stripe.find( key, hash );
+            V current = slot < 0 ? null : stripe.values[ slot ];
+            V updated = remapper.apply( current );
+            if( updated == null ){
+                if( slot >= 0 ){
+                    stripe.removeAt( slot );
+                }
+            } else if( slot >= 0 ){
+                stripe.values[ slot ] = updated;
+            } else {
+                stripe.put( key, hash, updated, false );
+            }
+            return updated;
+        }
+    }
+
+    /**
+     * Visitor: receives each entry in forEach.
+     */
+    public interface Visitor<V> {
+        void visit( long key, V value );
+    }
+
+    /**
+     * forEach: visit every entry, one stripe at a time.
+     * Entries in a stripe can not change while it is being visited,
+     * but other stripes may change before or after theirs are visited.
+     * @param visitor - called with each key and value.
+     */
+    public void forEach( Visitor<V> visitor ){
+        for( Stripe<V> stripe : this.stripes ){
+            synchronized( stripe ){
+                for( int i = 0; i < stripe.keys.length; i++ ){
+                    if( stripe.values[i] != null ){
+                        visitor.visit( stripe.keys[i], stripe.values[i] );
+                    }
+                }
+            }
+        }
+    }
+
+    public int size(){
+        int size = 0;
+        for( Stripe<V> stripe : this.stripes ){
+            synchronized( stripe ){
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Stripe: one open addressing table.
+     * A slot is in use when its value is non null.
+     * Callers must hold the stripe's lock.
+     */
+    private static class Stripe<V> {
+        long[] keys;
+        V[] values;
+        int size;
+
+        @SuppressWarnings("unchecked")
+        Stripe(){
+            this.keys = new long[ INITIAL_CAPACITY ];
+            this.values = (V[]) new Object[ INITIAL_CAPACITY ];
+        }
+
+        int find( long key, long hash ){
+            int mask = this.keys.length - 1;
+            int slot = (int) hash & mask;
+            while( this.values[ slot ] != null ){
+                if( this.keys[ slot ] == key ){
+                    return slot;
+                }
+                slot = ( slot + 1 ) & mask;
+            }
+            return -1;
+        }
+
+        V put( long key, long hash, V value, boolean onlyIfAbsent ){
+            int mask = this.keys.length - 1;
+            int slot = (int) hash & mask;
+            while( this.values[ slot ] != null ){
+                if( this.keys[ slot ] == key ){
+                    V old = this.values[ slot ];
+                    if( !onlyIfAbsent ){
+                        this.values[ slot ] = value;
+                    }
+                    return old;
+                }
+                slot = ( slot + 1 ) & mask;
+            }
+            this.keys[ slot ] = key;
+            this.values[ slot ] = value;
+            this.size++;
+
+            //keep the table at most half full.
+            if( this.size * 2 > this.keys.length ){
+                resize();
+            }
+            return null;
+        }
+
+        /**
+         * removeAt: empty a slot, then move back any later entries in the same
+         * probe chain that could no longer be found past the gap.
+         */
+        void removeAt( int slot ){
+            int mask = this.keys.length - 1;
+            int gap = slot;
+            int next = ( gap + 1 ) & mask;
+            while( this.values[ next ] != null ){
+                int home = (int) mix( this.keys[ next ] ) & mask;
+                //move the entry if its home slot is not between the gap and where it sits now.
+                boolean movable = gap <= next ?
+                    ( home <= gap || home > next ) :
+                    ( home <= gap && home > next );
+                if( movable ){
+                    this.keys[ gap ] = this.keys[ next ];
+                    this.values[ gap ] = this.values[ next ];
+                    gap = next;
+                }
+                next = ( next + 1 ) & mask;
+            }
+            this.values[ gap ] = null;
+            this.size--;
+        }
+
+        @SuppressWarnings("unchecked")
+        void resize(){
+            long[] oldKeys = this.keys;
+            V[] oldValues = this.values;
+            this.keys = new long[ oldKeys.length * 2 ];
+            this.values = (V[]) new Object[ oldKeys.length * 2 ];
+            int mask = this.keys.length - 1;
+
+            for( int i = 0; i < oldKeys.length; i++ ){
+                if( oldValues[i] != null ){
+                    int slot = (int) mix( oldKeys[i] ) & mask;
+                    while( this.values[ slot ] != null ){
+                        slot = ( slot + 1 ) & mask;
+                    }
+                    this.keys[ slot ] = oldKeys[i];
+                    this.values[ slot ] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.json.JSONObject;
 import org.json.JSONException;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.File;
@@ -13,13 +14,10 @@ import java.nio.file.Files;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException; 
 import javax.servlet.http.HttpServletResponse; 
-import com.google.gson.Gson;
 
 
 /**
@@ -48,6 +46,8 @@ import com.google.gson.Gson;
  */
 public class Main {
 
+    private static final JsonTransformer json = new JsonTransformer();
+    private static final String IDEMPOTENCY_ATTRIBUTE = "idempotencyKey"; 
 
     /**
      * endpointNotImplemented: Default functionality for when an endpoint has not been implemeneted yet. 
@@ -194,7 +194,6 @@ public class Main {
         int tableNumber = Integer.parseInt(req.params(":tablenumber")); 
 
         String body = req.body(); 
-        Gson gson = new Gson(); 
         
         try{
             JSONObject o = new JSONObject(body);
@@ -290,9 +289,9 @@ public class Main {
         int tableNumber = Integer.parseInt(req.params(":tablenumber")); 
 
         OrderTracker tracker = OrderTracker.getInstance();
-        Order order = tracker.getOrder( restaurantID, tableNumber ); 
+        boolean added = tracker.addOrderItem( restaurantID, tableNumber, orderItem ); 
 
-        if( order == null ){
+        if( !added ){
             System.out.printf("Tried to add an item to a non-existant order.\n" +
                     "restaurantID: %d, tableNumber: %d.\n", 
                     restaurantID, tableNumber 
@@ -301,7 +300,6 @@ public class Main {
             return "No open order for this table."; 
         }
 
-        order.addOrderItem( orderItem ); 
         res.status(200);
         return "Successfully added item to order.";
     }
@@ -319,9 +317,9 @@ public class Main {
         int tableNumber = Integer.parseInt(req.params(":tablenumber")); 
 
         OrderTracker tracker = OrderTracker.getInstance();
-        Order order = tracker.getOrder( restaurantID, tableNumber ); 
+        boolean removed = tracker.removeMenuItemFromOrder( restaurantID, tableNumber, item.getMenuItemID() ); 
 
-        if( order == null ){
+        if( !removed ){
             System.out.printf("Tried to remove an item to a non-existant order.\n" +
                     "restaurantID: %d, tableNumber: %d.\n", 
                     restaurantID, tableNumber 
@@ -330,7 +328,6 @@ public class Main {
             return "No open order for this table."; 
         }
 
-        order.removeMenuItemFromOrder( item.getMenuItemID() ); 
         res.status(200); 
         return "Sucessfully removed orderItem"; 
     }
@@ -346,7 +343,8 @@ public class Main {
         int tableNumber = Integer.parseInt(req.params(":tablenumber")); 
 
         OrderTracker tracker = OrderTracker.getInstance();
-        Order order = tracker.getOrder( restaurantID, tableNumber );
+        //take the order out of the tracker so nothing is added while it is being saved.
+        Order order = tracker.takeOrder( restaurantID, tableNumber );
 
         if( order == null ){
             System.out.printf("Tried to add an item to a non-existant order.\n" +
@@ -357,24 +355,116 @@ public class Main {
             return "No open order for this table."; 
         }
         if( !order.isDefault() ){
+            order.setRestaurantID( restaurantID ); 
+            SubmissionQueue.Submission submission = queueOrder( order, req ); 
+            if( submission != null ){
+                res.status(202); 
+                return submission; 
+            }
+
             boolean saved = order.save(); 
             if( saved ){
-                tracker.completeOrder(restaurantID, tableNumber);
                 res.status(200); 
                 return "Successfully saved your order"; 
             }
             else { 
+                tracker.restoreOrder( restaurantID, tableNumber, order ); 
                 res.status(500); 
                 return "Failed to save your order"; 
             }
         }
         else {
+            tracker.restoreOrder( restaurantID, tableNumber, order ); 
             res.status(400); 
             return "Failed to parse out request for submitting a order"; 
         }
 
     }
 
+    /**
+     * idempotent: wrap a route so requests with an Idempotency-Key header only run once. 
+     * Retries with the same key get the first successful response back, see IdempotencyStore. 
+     * Keys are scoped to the request path, so the same key can be used at different tables. 
+     * @param route - the route to wrap. 
+     * @return the wrapped route. 
+     */
+    private static Route idempotent( Route route ){
+        return ( req, res ) -> {
+            String key = req.headers("Idempotency-Key"); 
+            if( key == null || key.isEmpty() ){
+                return route.handle( req, res ); 
+            }
+
+            String scopedKey = req.pathInfo() + "|" + key; 
+            IdempotencyStore.Result previous = IdempotencyStore.claim( scopedKey ); 
+            if( previous != null ){
+                res.status( previous.getStatus() ); 
+                //a request still running has no response to replay yet. 
+                if( previous != IdempotencyStore.IN_PROGRESS ){
+                    res.header( "Idempotent-Replayed", "true" ); 
+                }
+                return previous.getBody(); 
+            }
+
+            req.attribute( IDEMPOTENCY_ATTRIBUTE, scopedKey ); 
+            Object body = null; 
+            try {
+                body = route.handle( req, res ); 
+                return body; 
+            } finally {
+                IdempotencyStore.complete( scopedKey, res.status(), body ); 
+            }
+        };
+    }
+
+    /**
+     * queueOrder: hand an order to the SubmissionQueue to be saved in the background. 
+     * @param order - the order to save, with its restaurantID set. 
+     * @param req - the request, used for its idempotency key if it has one. 
+     * @return the queued submission, or null if the order should be saved now instead, 
+     * because the queue is off, the order is invalid, or it could not be written to disk. 
+     */
+    private static SubmissionQueue.Submission queueOrder( Order order, Request req ){
+        SubmissionQueue queue = SubmissionQueue.getInstance(); 
+        if( !queue.isEnabled() || !order.hasValidItems() ){
+            return null; 
+        }
+        try {
+            return queue.submit( order, req.attribute( IDEMPOTENCY_ATTRIBUTE ) ); 
+        } catch( IOException ioe ){
+            System.out.printf("Failed to queue an order, saving it now instead.\n" + 
+                    "Exception: %s\n", ioe.toString() );
+            return null; 
+        }
+    }
+
+    /**
+     * getSubmission: Handler for api/submissions/:handle
+     * Gets the status of an order returned from submit or submitfull. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getSubmission( Request req, Response res ){
+        SubmissionQueue.Submission submission = SubmissionQueue.getInstance().getSubmission( req.params(":handle") ); 
+        if( submission == null ){
+            res.status(404); 
+            return "No submission with that handle."; 
+        }
+        res.status(200); 
+        return submission; 
+    }
+
+    /**
+     * getSubmissionStats: Handler for api/stats/submissions
+     * Gets the counters for the order submission queue. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getSubmissionStats( Request req, Response res ){
+        res.status(200); 
+        return SubmissionQueue.getInstance().getStats(); 
+    }
+
     /**
      * getOrdersWithin24Hours: Handler for api/users/:userid/orders
      * Gets all orders for the user within 24 hours
@@ -404,6 +494,7 @@ public class Main {
             int orderID = Integer.parseInt(req.params(":orderid"));
             boolean success = DBUtil.markOrderReady(orderID);
             if( success ){
+                KitchenFeed.orderReady( Integer.parseInt(req.params(":restaurantid")), orderID ); 
                 res.status(200); 
                 return "Successfully marked order ready"; 
             }
@@ -475,9 +566,11 @@ public class Main {
     */
     public static Object removeMenu( Request req, Response res) {
         try{ 
+            int restaurantID = Integer.parseInt(req.params(":restaurantid"));
             int menuID = Integer.parseInt(req.params(":menuid"));
             boolean success = DBUtil.removeMenu(menuID);
             if( success ){
+                MenuCache.invalidate( restaurantID ); 
                 res.status(200); 
                 return "Successfully removed menu"; 
             }
@@ -499,9 +592,11 @@ public class Main {
      */
     public static Object removeMenuItem( Request req, Response res) {
         try{ 
+            int restaurantID = Integer.parseInt(req.params(":restaurantid"));
             int itemID = Integer.parseInt(req.params(":itemid"));
             boolean success = DBUtil.removeMenuItem(itemID);
             if( success ){
+                MenuCache.invalidate( restaurantID ); 
                 res.status(200); 
                 return "Successfully removed menu item"; 
             }
@@ -523,10 +618,12 @@ public class Main {
      */
     public static Object removeMenuItemFromMenu( Request req, Response res) {
         try{ 
+            int restaurantID = Integer.parseInt(req.params(":restaurantid"));
             int itemID = Integer.parseInt(req.params(":itemid"));
             int menuID = Integer.parseInt(req.params(":menuid"));
             boolean success = DBUtil.removeItemFromMenu(itemID, menuID);
             if( success ){
+                MenuCache.invalidate( restaurantID ); 
                 res.status(200); 
                 return "Successfully removed menu item"; 
             }
@@ -590,8 +687,7 @@ public class Main {
 
         try{ 
             int restaurantID = Integer.parseInt(req.params(":restaurantid")); 
-            res.status(200); 
-            return Menu.allMenus( restaurantID ); 
+            return MenuCache.menusJson( restaurantID ).write( req, res ); 
         } catch( NumberFormatException nfe){
             res.status(400); 
             return "Failed to parse restaurantID as an integer."; 
@@ -607,10 +703,9 @@ public class Main {
     public static Object getAllAvailableMenus( Request req, Response res ){
 
         try{
-            int currentTime = getCurrentTimestamp();
             int restaurantID = Integer.parseInt(req.params(":restaurantid")); 
             res.status(200); 
-            return Menu.allAvailableMenus( restaurantID, currentTime ); 
+            return Menu.allAvailableMenus( restaurantID ); 
         } catch( NumberFormatException nfe){
             res.status(400); 
             return "Failed to parse restaurantID as an integer."; 
@@ -619,21 +714,10 @@ public class Main {
 
     /**
      * getCurrentTimestamp: Gets the current time in integer form (Ex: 2:30 PM = 1430)
+     * in the server's time zone, restaurants use their own zone through Menu.allAvailableMenus. 
      */
     public static int getCurrentTimestamp(){
-        Date currentTime = new Date();
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(currentTime);
-        String hour = String.valueOf(cal.get(Calendar.HOUR_OF_DAY));
-        String minute = "";
-        //check if need to prepend "0" to minute
-        if(cal.get(Calendar.MINUTE) > 10){
-            minute = String.valueOf(cal.get(Calendar.MINUTE));
-        } else {
-            minute = "0" + String.valueOf(cal.get(Calendar.MINUTE));
-        }
-        String timestamp = hour.concat(minute);
-        return Integer.parseInt(timestamp);
+        return TimeOfDay.now();
     }
 
     /**
@@ -644,11 +728,7 @@ public class Main {
      */
     public static Object getAllRestaurants( Request req, Response res ){
 
-        Restaurant[] restaurants = Restaurant.getAllRestaurants();   
-        //ResultSet result = DBUtil.getAllRestaurants();
-        
-        Restaurants resp = new Restaurants( restaurants ); 
-        return resp;
+        return RestaurantCache.allRestaurants().write( req, res ); 
     }
 
     /**
@@ -754,8 +834,7 @@ public class Main {
 
         try {
             int restaurantID = Integer.parseInt(req.params(":restaurantid")); 
-            Restaurant restaurant = new Restaurant( restaurantID, true );  
-            return restaurant; 
+            return RestaurantCache.withMenus( restaurantID ).write( req, res ); 
 
         } catch( NumberFormatException nfe){
             res.status(400); 
@@ -773,12 +852,22 @@ public class Main {
 
         Restaurant restaurant = Restaurant.restaurantFromJson( req.body() ); 
 
+        if( !TimeOfDay.isValidZone( restaurant.getTimeZone() ) ){
+            res.status(400); 
+            return "Unknown timeZone, use a zone id like America/Chicago."; 
+        }
 
         if( !restaurant.isDefault() ){
             int rid = restaurant.save(); 
             if( rid != -1 ){
+                RestaurantCache.invalidate(); 
                 //create the tables. 
                 restaurant.createTables(); 
+                if( !restaurant.saveTimeZone() ){
+                    res.status(500); 
+                    return String.format( "Saved restaurant %d, but failed to save its timeZone. " + 
+                            "Its menu times use the server's zone until the timeZone is saved.", rid ); 
+                }
                 res.status(200); 
                 return rid; 
             }
@@ -826,6 +915,13 @@ public class Main {
         order.setTableID(tableID);
 
         if( !order.isDefault() ){
+            order.setRestaurantID( restaurantID ); 
+            SubmissionQueue.Submission submission = queueOrder( order, req ); 
+            if( submission != null ){
+                res.status(202); 
+                return submission; 
+            }
+
             boolean saved = order.save(); 
             if( saved ){
                 res.status(200); 
@@ -853,13 +949,97 @@ public class Main {
             int restaurantID = Integer.parseInt(req.params(":restaurantid"));
             ArrayList<Order> result = Order.allOrdersForRestaurant(restaurantID); 
             res.status(200); 
-            return result;
+            return JsonTransformer.stream( result, res );
         } catch( NumberFormatException nfe ){
             res.status(400); 
             return "Failed to parse restaurantID in getOrdersForRestaurant."; 
         }
     }
 
+    /**
+     * exportOrderItems: Handler for api/restaurant/:restaurantid/order/export
+     * Sends every item ever ordered at the restaurant as a JSON array, see DBUtil.exportOrderItems. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     *
+     * This function writes the rows to the response's outputstream a page at a time. 
+     */
+    public static Object exportOrderItems( Request req, Response res ){
+        int restaurantID; 
+        try{ 
+            restaurantID = Integer.parseInt(req.params(":restaurantid"));
+        } catch( NumberFormatException nfe ){
+            res.status(400); 
+            return "Failed to parse restaurantID in exportOrderItems."; 
+        }
+
+        HttpServletResponse raw = res.raw(); 
+        raw.setContentType("application/json; charset=utf-8"); 
+        try {
+            if( !DBUtil.exportOrderItems( restaurantID, raw.getOutputStream() ) ){
+                //nothing was written yet, so the response can still be changed. 
+                raw.setContentType("text/plain"); 
+                res.header("Retry-After", "30"); 
+                res.status(503); 
+                return "Too many exports are running, try again later."; 
+            }
+        } catch( SQLException e ){
+            System.out.printf("SQL Exception while exporting the order items of restaurant %d.\n" + 
+                    "Exception: %s\n", restaurantID, e.toString() );
+            if( !raw.isCommitted() ){
+                res.status(500); 
+                return "Failed to export the order items."; 
+            }
+        } catch( IOException ioe ){
+            //the client went away, there is nobody to tell. 
+        }
+        return ""; 
+    }
+
+    /**
+     * getOrderFeed: Handler for api/restaurant/:restaurantid/order/feed
+     * Streams order events for the restaurant as Server-Sent Events, see KitchenFeed. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     *
+     * This function holds the connection open and writes events 
+     * to the response's outputstream until the client disconnects. 
+     */
+    public static Object getOrderFeed( Request req, Response res ){
+        int restaurantID; 
+        try{ 
+            restaurantID = Integer.parseInt(req.params(":restaurantid"));
+        } catch( NumberFormatException nfe ){
+            res.status(400); 
+            return "Failed to parse restaurantID in getOrderFeed."; 
+        }
+
+        HttpServletResponse raw = res.raw(); 
+        raw.setStatus(200); 
+        raw.setContentType("text/event-stream"); 
+        raw.setCharacterEncoding("UTF-8"); 
+        raw.setHeader("Cache-Control", "no-cache"); 
+        raw.setHeader("X-Accel-Buffering", "no"); 
+
+        String lastEventID = req.headers("Last-Event-ID"); 
+        if( lastEventID == null ){
+            lastEventID = req.queryParams("lastEventId"); 
+        }
+
+        try {
+            if( !KitchenFeed.stream( restaurantID, lastEventID, raw.getOutputStream() ) ){
+                //nothing was written yet, so the response can still be changed. 
+                raw.setContentType("text/plain"); 
+                res.header("Retry-After", "30"); 
+                res.status(503); 
+                return "Too many kitchen screens are connected, try again later."; 
+            }
+        } catch( IOException ioe ){
+            //the kitchen screen disconnected, it will reconnect with its Last-Event-ID. 
+        }
+        return ""; 
+    }
+
     /**
      * getImage: Handler for /api/images/:menuid/:menuitemid 
      * gets the image associated with the specifed menuitem. 
@@ -902,6 +1082,16 @@ public class Main {
         }
     }
 
+    /**
+     * getImageFile: Handler for /api/images/:filename
+     * Sends an image file, or the requested range of it, see ImageServer. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getImageFile( Request req, Response res ){
+        return ImageServer.serve( req.params(":filename"), req, res ); 
+    }
+
     /**
      * saveImage: Handler for /api/image/:filename
      * Saves an image to the server's file system given an image upload. 
@@ -913,7 +1103,11 @@ public class Main {
     public static Object saveImage( Request req, Response res ){
 
         try{
-            String fileName = req.params(":imagename"); 
+            String fileName = req.params(":filename"); 
+            if( !ImageServer.isSafeName( fileName ) ){
+                res.status(400); 
+                return "Invalid image name."; 
+            }
             InputStream is = req.raw().getPart("uploaded_file").getInputStream();
             req.attribute("org.eclipse.jetty.multipartConfig", new MultipartConfigElement("/temp"));
             boolean saved = ImageUtil.saveImage( fileName, is ); 
@@ -944,6 +1138,39 @@ public class Main {
         }
     }
 
+    /**
+     * getMenuCacheStats: Handler for api/stats/menus
+     * Gets the hit, miss and eviction counters of the menu cache. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getMenuCacheStats( Request req, Response res ){
+        res.status(200); 
+        return MenuCache.getStats(); 
+    }
+
+    /**
+     * getImageStoreStats: Handler for api/stats/images
+     * Gets how many images are stored, and how many uploads were already stored. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getImageStoreStats( Request req, Response res ){
+        res.status(200); 
+        return ImageStore.getStats(); 
+    }
+
+    /**
+     * getOrderTrackerStats: Handler for api/stats/orders
+     * Gets the counters for open orders held in memory. 
+     * @param Request - Request object. 
+     * @param Response - Response object.  
+     */
+    public static Object getOrderTrackerStats( Request req, Response res ){
+        res.status(200); 
+        return OrderTracker.getInstance().getStats(); 
+    }
+
     /**
      * initRouter: specifes all of the routes for the API. 
      */
@@ -953,19 +1180,27 @@ public class Main {
 
         path("/api", () -> {
             post("/image/:filename", Main::saveImage );  
-            get("/tables", Main::getTableByAlexaID, new JsonTransformer() ); 
+            get("/images/:filename", Main::getImageFile ); 
+            get("/tables", Main::getTableByAlexaID, json ); 
+            path("/stats", () -> {
+                get("/orders", Main::getOrderTrackerStats, json ); 
+                get("/submissions", Main::getSubmissionStats, json ); 
+                get("/menus", Main::getMenuCacheStats, json ); 
+                get("/images", Main::getImageStoreStats, json ); 
+            });
+            get("/submissions/:handle", Main::getSubmission, json ); 
             path("/users", () -> {
-                post("/addmanager", Main::addUserAsManager, new JsonTransformer());
-                post("/signin", "application/json", Main::signIn, new JsonTransformer() );
+                post("/addmanager", Main::addUserAsManager, json);
+                post("/signin", "application/json", Main::signIn, json );
                 path("/:userid", () -> {
                     get("", Main::endpointNotImplemented );
-                    get("/orders", Main::getOrdersWithin24Hours, new JsonTransformer());
+                    get("/orders", Main::getOrdersWithin24Hours, json);
                     path("/favorites", () -> {
-                        get("", Main::getFavoriteRestaurants, new JsonTransformer() );
+                        get("", Main::getFavoriteRestaurants, json );
                         path("/restaurant", () -> {
                             path("/:restaurantid", () -> {
-                                post("/add", Main::addFavoriteRestaurant, new JsonTransformer() );
-                                post("/remove", Main::removeFavoriteRestaurant, new JsonTransformer() );
+                                post("/add", Main::addFavoriteRestaurant, json );
+                                post("/remove", Main::removeFavoriteRestaurant, json );
                             });
                         });
                         
@@ -973,45 +1208,47 @@ public class Main {
                 });
             });
             path("/restaurant", () -> {
-                get("", Main::getAllRestaurants, new JsonTransformer() ); 
-                post("/add", Main::addRestaurant, new JsonTransformer() ); 
+                get("", Main::getAllRestaurants, json ); 
+                post("/add", Main::addRestaurant, json ); 
                 path("/:restaurantid", () -> {
-                    get("", Main::getRestaurant, new JsonTransformer()); 
-                    get("/withmenus", Main::getRestaurantWithMenus, new JsonTransformer()); 
+                    get("", Main::getRestaurant, json); 
+                    get("/withmenus", Main::getRestaurantWithMenus, json); 
                     path("/menu", () -> {
-                        get("", Main::getAllMenu, new JsonTransformer() ); 
-                        get("/available", Main::getAllAvailableMenus, new JsonTransformer() ); 
-                        post("/add", "application/json", Main::addMenu, new JsonTransformer()); 
+                        get("", Main::getAllMenu, json ); 
+                        get("/available", Main::getAllAvailableMenus, json ); 
+                        post("/add", "application/json", Main::addMenu, json); 
                         path("/:menuid", () -> {
-                            post("/remove", Main::removeMenu, new JsonTransformer()); 
+                            post("/remove", Main::removeMenu, json); 
                             path("/item", () -> {
                                 path("/:itemid", () -> {
-                                    post("/removefromall", Main::removeMenuItem, new JsonTransformer()); 
-                                    post("/remove", Main::removeMenuItemFromMenu, new JsonTransformer());
+                                    post("/removefromall", Main::removeMenuItem, json); 
+                                    post("/remove", Main::removeMenuItemFromMenu, json);
                                 });
                             });
                         });
                     });
                     path("/tables", () -> {
-                        get("", Main::getTableInfo, new JsonTransformer() );
-                        get("/create", Main::createRestaurantTables, new JsonTransformer());
+                        get("", Main::getTableInfo, json );
+                        get("/create", Main::createRestaurantTables, json);
                         path("/:tablenumber", () -> {
                             post("/register", "application/json", Main::registerAlexaID ); 
                             path("/order", () -> {
-                                //get("", Main::getOrderByTable, new JsonTransformer() );
-                                post("/new", Main::initializeOrder, new JsonTransformer());
-                                post("/add", Main::addItemToOrder, new JsonTransformer());
-                                get("/submit", Main::submitOrder, new JsonTransformer());
-                                post("/submitfull", Main::submitCompleteOrder, new JsonTransformer());
-                                post("/remove", Main::removeItemFromOrder, new JsonTransformer()); 
+                                //get("", Main::getOrderByTable, json );
+                                post("/new", Main::initializeOrder, json);
+                                post("/add", Main::addItemToOrder, json);
+                                get("/submit", idempotent( Main::submitOrder ), json);
+                                post("/submitfull", idempotent( Main::submitCompleteOrder ), json);
+                                post("/remove", Main::removeItemFromOrder, json); 
                             });
                         });
                     });
                     path("/order", () -> {
-                        get("", Main::getOrdersForRestaurant, new JsonTransformer() ); 
+                        get("", Main::getOrdersForRestaurant, json ); 
+                        get("/feed", Main::getOrderFeed ); 
+                        get("/export", Main::exportOrderItems ); 
                         path("/:orderid", () -> {
-                            //get("", Main::getOrderByID, new JsonTransformer() ); 
-                            post("/complete", Main::markOrderReady, new JsonTransformer());
+                            //get("", Main::getOrderByID, json ); 
+                            post("/complete", Main::markOrderReady, json);
                         });
                     });
                 });
@@ -1031,7 +1268,10 @@ public class Main {
 
         //secure("/home/ubuntu/env/keystore.jks","autogarcon", null, null); // HTTPS key configuration for spark
         initRouter(); 
-        DBUtil.connectToDB();
+        DBUtil.initConnectionPool();
+        //replay the journals now, instead of on the first order request.
+        OrderTracker.getInstance();
+        SubmissionQueue.getInstance();
     }
 
 	public static void main(String[] args) {
@@ -1,5 +1,6 @@
 package AutoGarcon; 
 import java.util.ArrayList; 
+import java.util.HashMap;
 import java.sql.ResultSet; 
 import java.sql.SQLException;
 import com.google.gson.Gson;
@@ -26,6 +27,9 @@ public class Menu {
     private String menuName; 
     private String imageURL; 
 
+    //the fallback to loading each menu on its own is only reported once. 
+    private static volatile boolean warnedNoBulkLoading; 
+
     /**
      * Menu: Constructor to create an empty Menu Class.
      * @return A new Menu Instance with no initalized fields. 
@@ -51,46 +55,40 @@ public class Menu {
      */
     public Menu( int menuID, int restaurantID ){
 
-        ResultSet menu = DBUtil.getMenu( menuID, restaurantID ); 
-
+        Menu menu = DBUtil.getMenu( menuID, restaurantID, rs -> {
+            this.restaurantID = restaurantID; 
+            this.menuID = rs.getInt( "menuID" );  
+            this.menuName = rs.getString("menuName"); 
+            int statusInt = rs.getInt("menuStatus");
+            this.menuStatus = MenuStatus.values()[statusInt];
 
-        if( menu != null ){
             try {
-                this.restaurantID = restaurantID; 
-                this.menuID = menu.getInt( "menuID" );  
-                this.menuName = menu.getString("menuName"); 
-                int statusInt = menu.getInt("menuStatus");
-                this.menuStatus = MenuStatus.values()[statusInt];
-                this.imageURL = ImageUtil.getMenuImageURL( this.menuID );
-
-                try {
-                    this.timeRanges = new TimeRange[] {
-                         new TimeRange( 
-                                menu.getInt( "startTime" ), 
-                                menu.getInt( "stopTime" )
-                        )};
-                } catch (SQLException e){
-                    System.out.println("No timerange field, using default range.");
-                    this.timeRanges = new TimeRange[] { TimeRange.defaultRange() };
-                }
-
-                this.menuItems = MenuItem.menuItems( this.menuID );
-
-
+                this.timeRanges = new TimeRange[] {
+                     new TimeRange( 
+                            rs.getInt( "startTime" ), 
+                            rs.getInt( "stopTime" )
+                    )};
             } catch (SQLException e){
-                System.out.printf("Failed to get the required fields while creating a menu Object.\n" + 
-                       "Exception: %s.\n", e.toString() );
+                System.out.println("No timerange field, using default range.");
+                this.timeRanges = new TimeRange[] { TimeRange.defaultRange() };
             }
+            return this; 
+        });
+
+        if( menu != null ){
+            this.imageURL = ImageUtil.getMenuImageURL( this.menuID );
+            this.menuItems = MenuItem.menuItems( this.menuID );
         }
     }
 
     /**
-     * Menu: Create a menu object from sql result. 
+     * Menu: Create a menu object from a sql result row. 
+     * Only the fields in the row are filled in, 
+     * use loadDetails() to get the time ranges and menu items. 
      * @param qresult - the result of the SQL query.
-     * @param withItems - a boolean flag that determines if menu items will be included
      * @return A menu object with data from the database.  
      */
-    public Menu( ResultSet qresult, boolean withItems ){
+    public Menu( ResultSet qresult ){
 
         try {
             this.restaurantID = qresult.getInt("restaurantID"); 
@@ -98,10 +96,6 @@ public class Menu {
             int statusInt = qresult.getInt("menuStatus"); 
             this.menuStatus = MenuStatus.values()[statusInt];  
             this.menuName = qresult.getString("menuName");
-            this.timeRanges = TimeRange.timeRanges( this.menuID ); 
-            if(withItems){
-                this.menuItems = MenuItem.menuItems( this.menuID ); 
-            }
         }
         catch( SQLException e){
             System.out.printf("Failed to get the required fields while creating a menu Object.\n" + 
@@ -111,87 +105,137 @@ public class Menu {
     }
 
     /**
-     * allMenus: Get all of the menus in an array 
-     * for the specified restaurant. 
-     * @param restaurantID the restaurant to get menus for. 
+     * loadDetails: get the time ranges, and optionally the menu items, for this menu. 
+     * @param withItems - a boolean flag that determines if menu items will be included
+     */
+    private void loadDetails( boolean withItems ){
+        this.timeRanges = TimeRange.timeRanges( this.menuID ); 
+        if(withItems){
+            this.menuItems = MenuItem.menuItems( this.menuID ); 
+        }
+    }
+
+    /**
+     * withDetails: load the details of every menu in the list. 
+     * The time ranges and items for the whole restaurant are fetched in one query each, 
+     * and then matched up with their menus, instead of two queries per menu. 
+     * @param restaurantID - the restaurant the menus belong to. 
+     * @param list - menus created from sql result rows. 
+     * @param withItems - a boolean flag that determines if menu items will be included
      * @return An array of menus. 
      */
-    public static Menu[] allMenus( int restaurantID ){
+    private static Menu[] withDetails( int restaurantID, ArrayList<Menu> list, boolean withItems ){
+        if( list.isEmpty() ){
+            return new Menu[0]; 
+        }
 
-        ResultSet menus = DBUtil.getMenus( restaurantID ); 
-        ArrayList<Menu> list = new ArrayList<Menu>();  
-        boolean hasResult = false; 
+        HashMap<Integer, ArrayList<TimeRange>> times = 
+            DBUtil.getMenuTimesForRestaurant( restaurantID, TimeRange::new ); 
+        HashMap<Integer, ArrayList<MenuItem>> items = null; 
+        if( withItems ){
+            items = DBUtil.getMenuItemsForRestaurant( restaurantID, 
+                    rs -> new MenuItem( rs, rs.getInt("menuID") ) ); 
+        }
 
-        try{ 
-            hasResult = menus.next(); 
-            while( hasResult ){
-                    Menu menu = new Menu( menus, true ); 
-                    list.add(menu); 
-                    hasResult = menus.next(); 
+        //fall back to loading each menu on its own if the bulk queries failed.
+        if( times == null || ( withItems && items == null ) ){
+            if( !warnedNoBulkLoading ){
+                warnedNoBulkLoading = true; 
+                System.out.printf("Loading menus one at a time, the bulk menu procedures failed. " + 
+                        "Install them with sql/01_menu_bulk_loading.sql.\n"); 
             }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
+            for( Menu menu : list ){
+                menu.loadDetails( withItems ); 
+            }
+            return list.toArray( new Menu[ list.size() ] ); 
         }
 
+        for( Menu menu : list ){
+            ArrayList<TimeRange> menuTimes = times.getOrDefault( menu.menuID, new ArrayList<TimeRange>() ); 
+            menu.timeRanges = menuTimes.toArray( new TimeRange[ menuTimes.size() ] ); 
+            if( withItems ){
+                ArrayList<MenuItem> menuItems = items.getOrDefault( menu.menuID, new ArrayList<MenuItem>() ); 
+                menu.menuItems = menuItems.toArray( new MenuItem[ menuItems.size() ] ); 
+            }
+        }
         return list.toArray( new Menu[ list.size() ] ); 
     }
 
+    /**
+     * allMenus: Get all of the menus in an array 
+     * for the specified restaurant. 
+     * The menus come from the MenuCache, and must not be modified. 
+     * @param restaurantID the restaurant to get menus for. 
+     * @return An array of menus. 
+     */
+    public static Menu[] allMenus( int restaurantID ){
+
+        return MenuCache.menus( restaurantID ); 
+    }
+
     /**
      * allMenus: Get all of the menus without their items in an array 
      * for the specified restaurant. 
+     * The menus come from the MenuCache, and must not be modified. 
      * @param restaurantID the restaurant to get menus for. 
      * @return An array of menus. 
      */
     public static Menu[] allMenusWithoutItems( int restaurantID ){
 
-        ResultSet menus = DBUtil.getMenus( restaurantID ); 
-        ArrayList<Menu> list = new ArrayList<Menu>();  
-        boolean hasResult = false; 
+        return MenuCache.menusWithoutItems( restaurantID ); 
+    }
 
-        try{ 
-            hasResult = menus.next(); 
-            while( hasResult ){
-                    Menu menu = new Menu( menus, false ); 
-                    list.add(menu); 
-                    hasResult = menus.next(); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
+    /**
+     * loadAllMenus: Get all of the menus with their items 
+     * for the specified restaurant from the database. 
+     * @param restaurantID the restaurant to get menus for. 
+     * @return An array of menus. 
+     */
+    static Menu[] loadAllMenus( int restaurantID ){
 
-        return list.toArray( new Menu[ list.size() ] ); 
+        ArrayList<Menu> list = DBUtil.getMenus( restaurantID, Menu::new ); 
+        return withDetails( restaurantID, list, true ); 
     }
 
     /**
-     * allAvailableMenus: Get all of the available menus in an array 
-     * for the specified restaurant and current time
+     * withoutItems: Copy this menu without its items. 
+     * @return A new menu sharing this menu's time ranges. 
+     */
+    Menu withoutItems(){
+        Menu copy = new Menu(); 
+        copy.menuID = this.menuID; 
+        copy.restaurantID = this.restaurantID; 
+        copy.menuStatus = this.menuStatus; 
+        copy.menuName = this.menuName; 
+        copy.imageURL = this.imageURL; 
+        copy.timeRanges = this.timeRanges; 
+        copy.menuItems = null; 
+        return copy; 
+    }
+
+    /**
+     * allAvailableMenus: Get all of the menus available right now in an array 
+     * for the specified restaurant, in the restaurant's time zone. 
      * @param restaurantID the restaurant to get menus for. 
      * @return An array of menus. 
      */
-    public static Menu[] allAvailableMenus( int restaurantID, int curTime ){
+    public static Menu[] allAvailableMenus( int restaurantID ){
 
-        ResultSet menus = DBUtil.getAvailableMenus( restaurantID, curTime ); 
-        ArrayList<Menu> list = new ArrayList<Menu>();  
-        boolean hasResult = false; 
+        return MenuSchedule.availableMenus( restaurantID ); 
+    }
 
-        try{ 
-            hasResult = menus.next(); 
-            while( hasResult ){
-                    Menu menu = new Menu( menus, true ); 
-                    list.add(menu); 
-                    hasResult = menus.next(); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
+    /**
+     * allAvailableMenus: Get all of the available menus in an array 
+     * for the specified restaurant and time
+     * The menus come from the restaurant's MenuSchedule, so the database 
+     * is only asked when the schedule has to be built. 
+     * @param restaurantID the restaurant to get menus for. 
+     * @param curTime time in integer form, in the restaurant's time zone 
+     * @return An array of menus. 
+     */
+    public static Menu[] allAvailableMenus( int restaurantID, int curTime ){
 
-        return list.toArray( new Menu[ list.size() ] ); 
+        return MenuSchedule.availableMenus( restaurantID, curTime ); 
     }
 
     /**
@@ -204,7 +248,7 @@ public class Menu {
      */
     public static Menu menuFromJson( String body ) {
 
-        Gson gson = new Gson();
+        Gson gson = JsonTransformer.gson();
         Menu menu = new Menu(); 
 
         try { 
@@ -224,16 +268,22 @@ public class Menu {
      */
     public boolean save(){
         DBUtil.saveMenu( this );
-        for( MenuItem mItem : this.menuItems ){
-            boolean itemSaved; 
-            itemSaved = DBUtil.saveMenuItem( this.menuID, this.restaurantID, mItem ); 
-            mItem.saveImage( menuID );
-
-            if( !itemSaved ){ 
-                return false; 
+        try {
+            for( MenuItem mItem : this.menuItems ){
+                boolean itemSaved; 
+                itemSaved = DBUtil.saveMenuItem( this.menuID, this.restaurantID, mItem ); 
+                ItemNameCache.remember( mItem.getItemID(), mItem.getName() ); 
+                mItem.saveImage( menuID );
+
+                if( !itemSaved ){ 
+                    return false; 
+                }
             }
+            return true; 
+        } finally {
+            //once every item is in, so nobody caches a half saved menu. 
+            MenuCache.invalidate( this.restaurantID ); 
         }
-        return true; 
     }
 
     public int getMenuID(){
@@ -264,6 +314,14 @@ public class Menu {
         return this.menuStatus.ordinal();
     }
 
+    /**
+     * isActive: Checks if the menu is active, 
+     * inactive menus are never available. 
+     */
+    boolean isActive(){
+        return this.menuStatus == MenuStatus.ACTIVE; 
+    }
+
     /**
      * isDefault: Checks if this instance of Menu was initalized
      * without any data. 
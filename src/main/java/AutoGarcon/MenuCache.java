@@ -0,0 +1,167 @@
+package AutoGarcon;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * MenuCache: Keeps each restaurant's full menus in memory.
+ *
+ * Menus are read far more often than they change, and building them takes
+ * several queries, so the menus for a restaurant are built once and then
+ * served from memory until one of them is changed through the API.
+ *
+ * Every restaurant has a version number that is bumped each time its menus
+ * change. A load that was started before a change is not kept, so the cache
+ * never holds menus older than the last change it was told about.
+ * At most MENU_CACHE_MAX_RESTAURANTS are kept, the least recently used are
+ * dropped first, and entries are reloaded after MENU_CACHE_TTL_MS in case
+ * the database was changed by something other than this server.
+ *
+ * Cached menus are shared between requests and must not be modified.
+ */
+public class MenuCache {
+
+    private static final int MAX_RESTAURANTS = Integer.getInteger("MENU_CACHE_MAX_RESTAURANTS", 1000);
+    static final long TTL_MS = Long.getLong("MENU_CACHE_TTL_MS", 10 * 60 * 1000L);
+
+    //access ordered, so the eldest entry is the least recently used.
+    private static final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>( 16, 0.75f, true ){
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Integer, Entry> eldest ){
+            boolean full = size() > MAX_RESTAURANTS;
+            if( full ){
+                evictions.incrementAndGet();
+            }
+            return full;
+        }
+    };
+
+    private static final Map<Integer, Long> versions = new ConcurrentHashMap<Integer, Long>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * menus: Get every menu at a restaurant, with their time ranges and items.
+     * @param restaurantID - the restaurant to get menus for.
+     * @return a new array of the cached menus.
+     */
+    public static Menu[] menus( int restaurantID ){
+        return entryFor( restaurantID ).menus.clone();
+    }
+
+    /**
+     * menusWithoutItems: Get every menu at a restaurant, with their time ranges but no items.
+     * @param restaurantID - the restaurant to get menus for.
+     * @return a new array of the cached menus.
+     */
+    public static Menu[] menusWithoutItems( int restaurantID ){
+        return entryFor( restaurantID ).menusWithoutItems.clone();
+    }
+
+    /**
+     * menusJson: Get every menu at a restaurant, with their items, rendered to JSON.
+     * @param restaurantID - the restaurant to get menus for.
+     */
+    public static CachedJson menusJson( int restaurantID ){
+        Entry entry = entryFor( restaurantID );
+        CachedJson json = entry.json;
+        if( json == null ){
+            json = CachedJson.of( entry.menus );
+            entry.json = json;
+        }
+        return json;
+    }
+
+    /**
+     * version: the number of times a restaurant's menus have changed since the server started.
+     * @param restaurantID - the restaurant to check.
+     */
+    public static long version( int restaurantID ){
+        return versions.getOrDefault( restaurantID, 0L );
+    }
+
+    /**
+     * invalidate: record that a restaurant's menus changed.
+     * Bumps its version, and drops its cached menus, schedule and item names.
+     * @param restaurantID - the restaurant whose menus changed.
+     */
+    public static void invalidate( int restaurantID ){
+        versions.merge( restaurantID, 1L, Long::sum );
+        synchronized( entries ){
+            entries.remove( restaurantID );
+        }
+        invalidations.incrementAndGet();
+        MenuSchedule.invalidate( restaurantID );
+        ItemNameCache.invalidate( restaurantID );
+    }
+
+    /**
+     * getStats: the cache's counters since the server started.
+     * @return the number of cached restaurants, hits, misses, evictions and invalidations.
+     */
+    public static Map<String, Long> getStats(){
+        Map<String, Long> stats = new HashMap<String, Long>();
+        synchronized( entries ){
+            stats.put( "restaurants", (long) entries.size() );
+        }
+        stats.put( "hits", hits.get() );
+        stats.put( "misses", misses.get() );
+        stats.put( "evictions", evictions.get() );
+        stats.put( "invalidations", invalidations.get() );
+        return stats;
+    }
+
+    private static Entry entryFor( int restaurantID ){
+        Entry entry;
+        synchronized( entries ){
+            entry = entries.get( restaurantID );
+        }
+        if( entry != null && entry.expiresAt > System.currentTimeMillis() ){
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+
+        //load outside the lock, so a slow load does not hold up other restaurants.
+        long version = version( restaurantID );
+        entry = new Entry( Menu.loadAllMenus( restaurantID ), version );
+
+        //an empty result may be a failed query, so try again next time.
+        if( entry.menus.length > 0 ){
+            synchronized( entries ){
+                if( version( restaurantID ) == version ){
+                    entries.put( restaurantID, entry );
+                }
+            }
+        }
+        return entry;
+    }
+
+
+    /**
+     * Entry: the menus cached for one restaurant, and the version they were loaded at.
+     */
+    private static class Entry {
+        final Menu[] menus;
+        final Menu[] menusWithoutItems;
+        final long version;
+        final long expiresAt;
+        volatile CachedJson json;
+
+        Entry( Menu[] menus, long version ){
+            this.menus = menus;
+            this.menusWithoutItems = new Menu[ menus.length ];
+            for( int i = 0; i < menus.length; i++ ){
+                this.menusWithoutItems[i] = menus[i].withoutItems();
+            }
+            this.version = version;
+            this.expiresAt = System.currentTimeMillis() + TTL_MS;
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class MenuItem {
     private transient File image; 
     private int calories; 
     private String imageURL; 
+    private String thumbnailURL; 
 
     /**
      * menuItemFromJson - create a menuItem from a JSON string. 
@@ -44,7 +45,7 @@ public class MenuItem {
      * @return a MenuItem with the feilds conatined from the JSON string. 
      */
     public static MenuItem menuItemFromJson( String body, int menuID ) {
-        Gson gson = new Gson(); 
+        Gson gson = JsonTransformer.gson(); 
         MenuItem item = new MenuItem(); 
 
         try { 
@@ -83,6 +84,7 @@ public class MenuItem {
             this.price = rs.getFloat("price"); 
             this.calories = rs.getInt("calories");
             this.imageURL = ImageUtil.getMenuItemImageURL( this.itemID ); 
+            this.thumbnailURL = ImageUtil.getMenuItemImageURL( this.itemID, ImageDerivatives.THUMBNAIL_WIDTH ); 
             
             if( rs.getBoolean("gluten") ){
                 allergens.add( Allergen.GLUTEN );
@@ -114,20 +116,7 @@ public class MenuItem {
      */
     public static MenuItem[] menuItems( int menuID ){
 
-        ResultSet rs = DBUtil.getMenuItems( menuID ); 
-        ArrayList<MenuItem> result = new ArrayList<MenuItem>(); 
-
-        try { 
-            while( rs.next() ){
-                MenuItem mItem = new MenuItem( rs, menuID ); 
-
-                result.add( mItem ); 
-            }
-        } catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n Exception: %s\n", e.toString() );
-            return null; 
-        }
-
+        ArrayList<MenuItem> result = DBUtil.getMenuItems( menuID, rs -> new MenuItem( rs, menuID ) ); 
         return result.toArray( new MenuItem[  result.size() ] );
     }
 
@@ -0,0 +1,220 @@
+package AutoGarcon;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * MenuSchedule: Answers which of a restaurant's menus are available at a time of day.
+ *
+ * Menu times rarely change, so instead of asking the database with
+ * GetAccessibleMenus on every request, all of a restaurant's menus are loaded
+ * once and the day is cut into segments at every menu's start and end time.
+ * Each segment knows which menus are active during it, so a lookup is a
+ * binary search over the segment boundaries.
+ *
+ * Menu times are in the restaurant's own time zone, so the current time
+ * is taken in that zone. Zones are kept apart from the schedules, so
+ * rebuilding a schedule after a menu change does not load the restaurant again.
+ *
+ * A restaurant's schedule is dropped when one of its menus is saved or removed,
+ * and is reloaded after MENU_SCHEDULE_TTL_MS in case the database was changed
+ * by something other than this server. A restaurant with no menus may just be
+ * a failed query, so its empty schedule is only kept for EMPTY_TTL_MS.
+ */
+public class MenuSchedule {
+
+    private static final long TTL_MS = Long.getLong("MENU_SCHEDULE_TTL_MS", 10 * 60 * 1000L);
+    private static final long EMPTY_TTL_MS = 30 * 1000L;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final Map<Integer, Schedule> schedules = new ConcurrentHashMap<Integer, Schedule>();
+    private static final Map<Integer, Zone> zones = new ConcurrentHashMap<Integer, Zone>();
+
+    //bumped on every invalidation, so a schedule built from data read before then is not kept.
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * availableMenus: Get the menus a restaurant offers right now.
+     * @param restaurantID - the restaurant to get menus for.
+     * @return the available menus, with their items.
+     */
+    public static Menu[] availableMenus( int restaurantID ){
+        Schedule schedule = scheduleFor( restaurantID );
+        return schedule.menusAt( toMinute( TimeOfDay.now( schedule.zone ) ) );
+    }
+
+    /**
+     * activeNow: Get the schedule's own array of the menus a restaurant offers right now.
+     * The same array is returned until the time moves into another segment
+     * or the schedule is rebuilt, so callers can compare it by identity.
+     * It must not be modified.
+     * @param restaurantID - the restaurant to get menus for.
+     */
+    static Menu[] activeNow( int restaurantID ){
+        Schedule schedule = scheduleFor( restaurantID );
+        return schedule.segmentAt( toMinute( TimeOfDay.now( schedule.zone ) ) );
+    }
+
+    /**
+     * availableMenus: Get the menus a restaurant offers at a time of day.
+     * @param restaurantID - the restaurant to get menus for.
+     * @param curTime - the time of day in the restaurant's zone as a 24 hour time int, i.e. 1430 for 2:30 PM.
+     * @return the available menus, with their items.
+     */
+    public static Menu[] availableMenus( int restaurantID, int curTime ){
+        return scheduleFor( restaurantID ).menusAt( toMinute( curTime ) );
+    }
+
+    /**
+     * invalidate: forget a restaurant's schedule, it is rebuilt on the next lookup.
+     * @param restaurantID - the restaurant whose menus changed.
+     */
+    public static void invalidate( int restaurantID ){
+        invalidations.incrementAndGet();
+        schedules.remove( restaurantID );
+    }
+
+    /**
+     * invalidateZone: forget a restaurant's time zone, it is reloaded on the next lookup.
+     * @param restaurantID - the restaurant whose time zone changed.
+     */
+    public static void invalidateZone( int restaurantID ){
+        zones.remove( restaurantID );
+        invalidate( restaurantID );
+    }
+
+    private static Schedule scheduleFor( int restaurantID ){
+        Schedule schedule = schedules.get( restaurantID );
+        if( schedule != null && schedule.expiresAt > System.currentTimeMillis() ){
+            return schedule;
+        }
+
+        long seen = invalidations.get();
+        Menu[] menus = Menu.allMenus( restaurantID );
+        schedule = new Schedule( menus, zoneFor( restaurantID ), menus.length > 0 ? TTL_MS : EMPTY_TTL_MS );
+        if( invalidations.get() == seen ){
+            schedules.put( restaurantID, schedule );
+        }
+        return schedule;
+    }
+
+    private static ZoneId zoneFor( int restaurantID ){
+        Zone zone = zones.get( restaurantID );
+        if( zone == null || zone.expiresAt <= System.currentTimeMillis() ){
+            String timeZone = DBUtil.getRestaurant( restaurantID, Restaurant::readTimeZone );
+            zone = new Zone( TimeOfDay.zone( timeZone ) );
+            zones.put( restaurantID, zone );
+        }
+        return zone.zone;
+    }
+
+    /**
+     * toMinute: turn a 24 hour time int into minutes since midnight.
+     * 2400 is the end of the day.
+     */
+    static int toMinute( int time ){
+        int minute = ( time / 100 ) * 60 + time % 100;
+        return Math.max( 0, Math.min( minute, MINUTES_PER_DAY ) );
+    }
+
+
+    /**
+     * Zone: a restaurant's time zone, and when to load it again.
+     */
+    private static class Zone {
+        final ZoneId zone;
+        final long expiresAt;
+
+        Zone( ZoneId zone ){
+            this.zone = zone;
+            this.expiresAt = System.currentTimeMillis() + TTL_MS;
+        }
+    }
+
+    /**
+     * Schedule: one restaurant's day, cut into segments with the same active menus.
+     * Segment i runs from boundaries[i] up to, but not including, boundaries[i + 1].
+     */
+    private static class Schedule {
+        final int[] boundaries;
+        final Menu[][] active;
+        final ZoneId zone;
+        final long expiresAt;
+
+        Schedule( Menu[] menus, ZoneId zone, long ttlMs ){
+            this.zone = zone;
+            this.expiresAt = System.currentTimeMillis() + ttlMs;
+
+            TreeSet<Integer> cuts = new TreeSet<Integer>();
+            cuts.add( 0 );
+            for( Menu menu : menus ){
+                for( TimeRange range : ranges( menu ) ){
+                    cuts.add( toMinute( range.getStartTime() ) );
+                    cuts.add( toMinute( range.getEndTime() ) );
+                }
+            }
+            cuts.remove( MINUTES_PER_DAY );
+
+            this.boundaries = new int[ cuts.size() ];
+            int i = 0;
+            for( int cut : cuts ){
+                this.boundaries[ i++ ] = cut;
+            }
+
+            this.active = new Menu[ this.boundaries.length ][];
+            for( int s = 0; s < this.boundaries.length; s++ ){
+                ArrayList<Menu> list = new ArrayList<Menu>();
+                for( Menu menu : menus ){
+                    if( isActiveAt( menu, this.boundaries[s] ) ){
+                        list.add( menu );
+                    }
+                }
+                this.active[s] = list.toArray( new Menu[ list.size() ] );
+            }
+        }
+
+        Menu[] menusAt( int minute ){
+            return segmentAt( minute ).clone();
+        }
+
+        Menu[] segmentAt( int minute ){
+            int s = Arrays.binarySearch( this.boundaries, minute );
+            if( s < 0 ){
+                //not a boundary itself, so it falls in the segment before the insertion point.
+                s = -s - 2;
+            }
+            return this.active[ Math.max( s, 0 ) ];
+        }
+
+        /**
+         * isActiveAt: check if a menu is offered at a minute of the day.
+         * Ranges include their start and not their end,
+         * and a range that ends before it starts runs past midnight.
+         */
+        private static boolean isActiveAt( Menu menu, int minute ){
+            if( !menu.isActive() ){
+                return false;
+            }
+            for( TimeRange range : ranges( menu ) ){
+                int start = toMinute( range.getStartTime() );
+                int end = toMinute( range.getEndTime() );
+                boolean inRange = start <= end ?
+                    ( minute >= start && minute < end ) :
+                    ( minute >= start || minute < end );
+                if( inRange ){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static TimeRange[] ranges( Menu menu ){
+            return menu.getTimeRanges() == null ? new TimeRange[0] : menu.getTimeRanges();
+        }
+    }
+}
@@ -5,6 +5,9 @@ import com.google.gson.JsonSyntaxException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.sql.ResultSet; 
 
 
@@ -27,7 +30,19 @@ public class Order {
     private OrderStatus orderStatus;
     private float chargeAmount;
     private int restaurantID;
-    private ArrayList<OrderItem> orderItems;
+    private List<OrderItem> orderItems;
+
+    /**
+     * when the order was last changed while open, used by OrderTracker 
+     * to drop orders that were never submitted. Not sent to clients. 
+     */
+    private transient volatile long lastActivity; 
+
+    /**
+     * the SubmissionQueue handle the order was queued under, saved with the order 
+     * so a retry after a restart does not save it twice. Null if it was not queued. 
+     */
+    private transient String submissionHandle; 
 
 
     /**
@@ -49,54 +64,36 @@ public class Order {
         this.orderStatus = OrderStatus.OPEN;
         this.chargeAmount = (float) 0.0;
         this.restaurantID = -1;
-        this.orderItems = new ArrayList<OrderItem>();
+        this.orderItems = new CopyOnWriteArrayList<OrderItem>();
     }
 
     public Order( int orderID ){
-        ResultSet result = DBUtil.getOrder( orderID ); 
+        this();
 
-        //if result is null return a default order. 
+        Order result = DBUtil.getOrder( orderID, rs -> {
+            readRow( rs ); 
+            return this; 
+        });
+
+        //if there is no such order keep the default fields. 
         if( result == null ){
-            new Order();
             return;
         }
 
-        try{
-            result.next(); 
-            this.orderID = result.getInt("orderID"); 
-            this.tableID = result.getInt("tableID");  
-            this.customerID = result.getInt("userID");
-            this.orderTime = result.getTimestamp("orderTime");
-            int statusInt = result.getInt("orderStatus");
-            this.orderStatus = OrderStatus.values()[statusInt];
-            this.chargeAmount = result.getFloat("chargeAmount");
-            this.restaurantID = DBUtil.getRestaurantByTable(this.tableID);
-            this.orderItems = OrderItem.orderItems(this.orderID);
-
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get the required fields while creating an order Object.\n" + 
-                   "Exception: %s.\n", e.toString() );
-
-        }
+        this.restaurantID = DBUtil.getRestaurantByTable(this.tableID);
+        this.orderItems = OrderItem.orderItems(this.orderID);
     }
 
     /**
-     * Menu: Create an order object from sql result. 
+     * Menu: Create an order object from a sql result row. 
+     * The order items are not included, see allOrders(). 
      * @param qresult - the result of the SQL query.
      * @return An order object with data from the database.  
      */
     public Order( ResultSet qresult ){
 
         try {
-            this.orderID = qresult.getInt("orderID");
-            this.tableID = qresult.getInt("tableID");
-            this.customerID = qresult.getInt("userID");
-            this.orderTime = qresult.getTimestamp("orderTime");
-            int statusInt = qresult.getInt("orderStatus"); 
-            this.orderStatus = OrderStatus.values()[statusInt];
-            this.chargeAmount = qresult.getFloat("chargeAmount");
-            this.orderItems = OrderItem.orderItems(this.orderID);
+            readRow( qresult ); 
         }
         catch( SQLException e){
             System.out.printf("Failed to get the required fields while creating a Order object.\n" + 
@@ -105,6 +102,52 @@ public class Order {
 
     }
 
+    /**
+     * readRow: fill in the order's fields from a sql result row. 
+     * @param qresult - the result of the SQL query.
+     */
+    private void readRow( ResultSet qresult ) throws SQLException {
+        this.orderID = qresult.getInt("orderID");
+        this.tableID = qresult.getInt("tableID");
+        this.customerID = qresult.getInt("userID");
+        this.orderTime = qresult.getTimestamp("orderTime");
+        int statusInt = qresult.getInt("orderStatus"); 
+        this.orderStatus = OrderStatus.values()[statusInt];
+        this.chargeAmount = qresult.getFloat("chargeAmount");
+    }
+
+    /**
+     * withItems: get the order items for every order in the list. 
+     * @param orders - orders created from sql result rows. 
+     * @return the same list of orders. 
+     */
+    private static ArrayList<Order> withItems( ArrayList<Order> orders ){
+        for( Order order : orders ){
+            order.orderItems = OrderItem.orderItems( order.orderID ); 
+        }
+        return orders; 
+    }
+
+    /**
+     * withItems: match up the order items loaded in one query with their orders. 
+     * Falls back to loading the items of each order on its own if the query failed. 
+     * @param orders - orders created from sql result rows. 
+     * @param items - order items grouped by orderID, or null if they could not be loaded. 
+     * @return the same list of orders. 
+     */
+    private static ArrayList<Order> withItems( ArrayList<Order> orders, HashMap<Integer, ArrayList<OrderItem>> items ){
+        if( items == null ){
+            return withItems( orders ); 
+        }
+
+        for( Order order : orders ){
+            ArrayList<OrderItem> orderItems = items.get( order.orderID ); 
+            order.orderItems = orderItems == null ? new ArrayList<OrderItem>() : orderItems; 
+            ItemNameCache.resolveNames( order.orderItems ); 
+        }
+        return orders; 
+    }
+
     /**
      * allOrders: Get all of the orders in an array 
      * for the specified user. 
@@ -113,24 +156,13 @@ public class Order {
      */
     public static ArrayList<Order> allOrders( int userID ){
 
-        ResultSet orders = DBUtil.getOrdersWithin24Hours( userID ); 
-        ArrayList<Order> list = new ArrayList<Order>();  
-        boolean hasResult = false; 
-
-        try{ 
-            hasResult = orders.next(); 
-            while( hasResult ){
-                    Order order = new Order( orders ); 
-                    list.add(order); 
-                    hasResult = orders.next(); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
+        ArrayList<Order> list = DBUtil.getOrdersWithin24Hours( userID, Order::new ); 
+        if( list.isEmpty() ){
+            return list; 
         }
-
-        return list; 
+        HashMap<Integer, ArrayList<OrderItem>> items = DBUtil.getOrderItemsWithin24Hours( userID, 
+                rs -> new OrderItem( rs, rs.getInt("orderID") ) ); 
+        return withItems( list, items ); 
     }
 
     /**
@@ -141,35 +173,31 @@ public class Order {
      */
     public static ArrayList<Order> allOrdersForRestaurant( int restaurantID ){
 
-        ResultSet orders = DBUtil.getOrdersForRestaurant( restaurantID ); 
-        ArrayList<Order> list = new ArrayList<Order>();  
-        boolean hasResult = false; 
-
-        try{ 
-            hasResult = orders.next(); 
-            while( hasResult ){
-                    Order order = new Order( orders ); 
-                    list.add(order); 
-                    hasResult = orders.next(); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
+        ArrayList<Order> list = DBUtil.getOrdersForRestaurant( restaurantID, rs -> {
+            Order order = new Order( rs ); 
+            order.restaurantID = restaurantID; 
+            return order; 
+        }); 
+        if( list.isEmpty() ){
+            return list; 
         }
-
-        return list; 
+        ItemNameCache.prime( restaurantID ); 
+        HashMap<Integer, ArrayList<OrderItem>> items = DBUtil.getOrderItemsForRestaurant( restaurantID, 
+                rs -> new OrderItem( rs, rs.getInt("orderID") ) ); 
+        return withItems( list, items ); 
     }
 
     public static Order orderFromJson( String body ){
 
-        Gson gson = new Gson(); 
+        Gson gson = JsonTransformer.gson(); 
         Order order = new Order(); 
 
         try { 
             order = gson.fromJson( body, Order.class );
             System.out.println(gson.toJson(order));
 
+            order.makeItemsConcurrent(); 
+
         } catch( JsonSyntaxException e ){
             System.out.printf("Failed to deserialze the request body into an Order object.\n" + 
                     "Request body: %s\n. Exception: %s\n", body, e.toString() );
@@ -178,15 +206,63 @@ public class Order {
         return order;
     }
 
+    /**
+     * makeItemsConcurrent: gson fills in a plain list, 
+     * swap in one that is safe to change from many threads. 
+     */
+    void makeItemsConcurrent(){
+        this.orderItems = this.orderItems == null ? 
+            new CopyOnWriteArrayList<OrderItem>() : new CopyOnWriteArrayList<OrderItem>( this.orderItems ); 
+    }
+
+    void touch(){
+        this.lastActivity = System.currentTimeMillis(); 
+    }
+
+    long getLastActivity(){
+        return this.lastActivity; 
+    }
+
     public boolean save(){
         if(this.orderItems.size() > 0){
-            return DBUtil.saveOrder( this ); 
+            boolean saved = DBUtil.saveOrder( this ); 
+            if( saved ){
+                notifyKitchen(); 
+            }
+            return saved; 
         } else {
             //don't save if there are no items in the order
             return false;
         }
     }
 
+    /**
+     * notifyKitchen: let the kitchen know the order was saved, 
+     * when we know which restaurant it is for. 
+     */
+    void notifyKitchen(){
+        if( this.restaurantID >= 0 ){
+            ItemNameCache.resolveNames( this.orderItems ); 
+            KitchenFeed.orderPlaced( this.restaurantID, this ); 
+        }
+    }
+
+    /**
+     * hasValidItems: check the order has items, and every item has the fields needed to save it. 
+     * @return true if the order can be saved. 
+     */
+    public boolean hasValidItems(){
+        if( this.orderItems == null || this.orderItems.isEmpty() ){
+            return false; 
+        }
+        for( OrderItem item : this.orderItems ){
+            if( item.getMenuItemID() <= 0 || item.getMenuID() == null || item.getMenuID() <= 0 || item.getQuantity() <= 0 || item.getComments() == null ){
+                return false; 
+            }
+        }
+        return true; 
+    }
+
     public boolean initializeOrder(Order order){
         //initializes an order, sets the 2 fields necessary to add it to the database
         if(!order.isDefault()){
@@ -226,7 +302,7 @@ public class Order {
         return this.restaurantID;
     }
 
-    public ArrayList<OrderItem> getOrderItems() {
+    public List<OrderItem> getOrderItems() {
         return this.orderItems;
     }
 
@@ -248,6 +324,14 @@ public class Order {
         }
     }
 
+    public String getSubmissionHandle() {
+        return this.submissionHandle;
+    }
+
+    public void setSubmissionHandle(String submissionHandle) {
+        this.submissionHandle = submissionHandle;
+    }
+
     public OrderStatus getOrderStatus() {
         return this.orderStatus;
     }
@@ -47,7 +47,6 @@ public class OrderItem {
         try{ 
             this.orderItemID = rs.getInt( "orderItemID" );  
             this.menuItemID = rs.getInt("itemID");
-            this.itemName = DBUtil.getItemNameFromID(this.menuItemID);
             this.quantity = rs.getInt("quantity"); 
             this.comments = rs.getString("comments"); 
             this.price = rs.getFloat("price"); 
@@ -59,19 +58,10 @@ public class OrderItem {
     }
 
 	public static ArrayList<OrderItem> orderItems(int orderID) {
-        ResultSet rs = DBUtil.getOrderItems( orderID ); 
-        ArrayList<OrderItem> result = new ArrayList<OrderItem>(); 
+        ArrayList<OrderItem> result = DBUtil.getOrderItems( orderID, rs -> new OrderItem( rs, orderID ) ); 
 
-        try { 
-            while( rs.next() ){
-                OrderItem oItem = new OrderItem( rs, orderID ); 
-
-                result.add( oItem ); 
-            }
-        } catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n Exception: %s\n", e.toString() );
-            return null; 
-        }
+        //item names come from another query, so look them up after the rows are read.
+        ItemNameCache.resolveNames( result );
 
         return result;
     }
@@ -82,7 +72,7 @@ public class OrderItem {
      * @return a OrderItem with the feilds conatined from the JSON string. 
      */
     public static OrderItem orderItemFromJson( String body ) {
-        Gson gson = new Gson(); 
+        Gson gson = JsonTransformer.gson(); 
         OrderItem item = new OrderItem(); 
 
         try { 
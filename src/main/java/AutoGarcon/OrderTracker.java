@@ -1,6 +1,20 @@
 package AutoGarcon; 
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap; 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 
 
@@ -11,35 +25,186 @@ import java.util.HashMap;
  *
  * this class follows the singleton pattern,
  * thus only one copy of it will exist at a time. 
+ *
+ * Requests for the same table can arrive on different server threads at once,
+ * so every change to a table's order goes through the map's atomic compute operations.
+ * That way two changes to the same table never interleave,
+ * and nothing can be added to an order once it has been taken for submission.
+ *
+ * Orders are keyed by restaurantID and table number packed into one long,
+ * so finding a table's order does not allocate anything.
+ * The UniqueTable methods are kept for callers that already have one.
+ *
+ * Every change is also appended to the "orders" Journal, and the journal
+ * is replayed when the tracker is created, so open orders survive a restart.
+ * Once the journal grows past ORDER_JOURNAL_COMPACT_RECORDS records it is
+ * rewritten as one record per open order.
+ * Set the System Property ORDER_JOURNAL=false to keep orders in memory only.
+ *
+ * Orders that are started but never submitted would otherwise stay forever.
+ * A background sweep drops orders with no activity for ORDER_IDLE_TTL_MS,
+ * and a restaurant can have at most ORDER_MAX_PER_RESTAURANT open orders,
+ * past that the idlest ones are dropped to make room for the new ones.
+ * Dropping happens on the maintenance thread, not while handling the request,
+ * so a restaurant can be a few orders over for a moment while it catches up.
  */
 public class OrderTracker{
 
+    private static final long COMPACT_CHECK_PERIOD_MS = 10000;
+    private static final long EXPIRY_SWEEP_PERIOD_MS = 30000;
+    private static final Gson gson = JsonTransformer.gson();
+
+    private final LongKeyMap<Order> orders;
+    private final Journal journal;
+    private final long compactThreshold;
+    private final long idleTtlMs;
+    private final int maxPerRestaurant;
 
-    private Map<UniqueTable, Order> orders; 
-    private static OrderTracker instance = null;  
+    //the keys of each restaurant's open orders, so a full restaurant is checked without scanning every order.
+    private final Map<Integer, Set<Long>> restaurantKeys;
+    //restaurants waiting for the maintenance thread to drop orders.
+    private final Set<Integer> overLimit;
+    private final ScheduledExecutorService maintenance;
+    private final AtomicLong expiredCount;
+    private final AtomicLong evictedCount;
+
+    /**
+     * set when a change could not be journaled, the journal is then rewritten
+     * from the open orders at the next compaction check instead of waiting to grow.
+     */
+    private volatile boolean journalBehind;
+
+    /**
+     * Changes hold the read lock so they can run at the same time,
+     * compacting holds the write lock so it sees no change half done.
+     */
+    private final ReadWriteLock compactionLock;
+
+    /**
+     * Holder: creates the instance the first time getInstance is called.
+     * The JVM guarantees this only happens once, even with many threads.
+     */
+    private static class Holder {
+        static final OrderTracker INSTANCE = new OrderTracker();
+    }
 
     public static OrderTracker getInstance(){
-        if( instance == null ){
-            OrderTracker tracker = new OrderTracker(); 
-            instance = tracker;  
-            return tracker; 
+        return Holder.INSTANCE;
+    }
+
+    private OrderTracker(){
+        this.orders = new LongKeyMap<Order>();
+        this.compactionLock = new ReentrantReadWriteLock();
+        this.compactThreshold = Long.getLong("ORDER_JOURNAL_COMPACT_RECORDS", 10000L);
+        this.idleTtlMs = Long.getLong("ORDER_IDLE_TTL_MS", 4 * 60 * 60 * 1000L);
+        this.maxPerRestaurant = Integer.getInteger("ORDER_MAX_PER_RESTAURANT", 500);
+        this.restaurantKeys = new ConcurrentHashMap<Integer, Set<Long>>();
+        this.overLimit = ConcurrentHashMap.newKeySet();
+        this.expiredCount = new AtomicLong();
+        this.evictedCount = new AtomicLong();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "order-tracker-maintenance" );
+            t.setDaemon( true );
+            return t;
+        });
+        this.journal = openJournal();
+
+        //replayed orders count as active from now, and need to be tracked per restaurant.
+        this.orders.forEach( ( key, order ) -> {
+            order.touch();
+            opened( key );
+        });
+
+        this.maintenance.scheduleWithFixedDelay( this::expireIdleOrders,
+                EXPIRY_SWEEP_PERIOD_MS, EXPIRY_SWEEP_PERIOD_MS, TimeUnit.MILLISECONDS );
+
+        if( this.journal != null ){
+            this.maintenance.scheduleWithFixedDelay( this::compactIfNeeded,
+                    COMPACT_CHECK_PERIOD_MS, COMPACT_CHECK_PERIOD_MS, TimeUnit.MILLISECONDS );
+            Runtime.getRuntime().addShutdownHook( new Thread( this.journal::close ) );
+        }
+    }
+
+    /**
+     * openJournal: open the orders journal and replay it into the map.
+     * @return the journal, or null if journaling is off or the journal could not be opened.
+     */
+    private Journal openJournal(){
+        if( !Boolean.parseBoolean( System.getProperty("ORDER_JOURNAL", "true") ) ){
+            return null;
         }
-        else{
-            return instance; 
+
+        try {
+            long start = System.currentTimeMillis();
+            Journal journal = new Journal("orders");
+            long records = journal.replay( this::apply );
+            System.out.printf("Recovered %d open orders from %d journal records in %dms.\n",
+                    this.orders.size(), records, System.currentTimeMillis() - start );
+            journal.rewrite( snapshot() );
+            return journal;
+        } catch( IOException e ){
+            System.out.printf("Failed to open the order journal, open orders will not survive a restart.\n" +
+                    "Exception: %s\n", e.toString() );
+            return null;
         }
     }
 
-    private OrderTracker(){
-        this.orders = new HashMap<UniqueTable, Order>();
+    /**
+     * key: pack a restaurantID and table number into a single map key.
+     */
+    static long key( int restaurantID, int tableNum ){
+        return ( (long) restaurantID << 32 ) | ( tableNum & 0xFFFFFFFFL );
+    }
+
+    private static int restaurantOf( long key ){
+        return (int) ( key >>> 32 );
+    }
+
+    private Set<Long> keysFor( int restaurantID ){
+        return this.restaurantKeys.computeIfAbsent( restaurantID, id -> ConcurrentHashMap.newKeySet() );
+    }
+
+    /**
+     * opened: track a new open order, and have the maintenance thread
+     * make room if its restaurant is now over the limit.
+     * Called while the order's entry is locked.
+     */
+    private void opened( long key ){
+        int restaurantID = restaurantOf( key );
+        Set<Long> keys = keysFor( restaurantID );
+        keys.add( key );
+        if( keys.size() > this.maxPerRestaurant && this.overLimit.add( restaurantID ) ){
+            this.maintenance.execute( () -> evictOverLimit( restaurantID ) );
+        }
+    }
+
+    /**
+     * closed: stop tracking an order that was taken or dropped.
+     * Called while the order's entry is locked.
+     */
+    private void closed( long key ){
+        keysFor( restaurantOf( key ) ).remove( key );
     }
 
     public void addOrder(UniqueTable table , Order order ){
-        this.orders.put( table, order ); 
+        addOrder( table.restaurantID, table.tableNumber, order ); 
     }
 
     public void addOrder( int restaurantID, int tableNum, Order order ){
-        UniqueTable table = new UniqueTable( restaurantID, tableNum);
-        this.orders.put( table, order ); 
+        long key = key( restaurantID, tableNum );
+        this.compactionLock.readLock().lock();
+        try {
+            this.orders.compute( key, current -> {
+                if( current == null ){
+                    opened( key );
+                }
+                order.touch();
+                record( JournalEntry.ADD, restaurantID, tableNum, entry -> entry.order = order );
+                return order;
+            });
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
     }
 
     /**
@@ -50,12 +215,107 @@ public class OrderTracker{
      * @return Null - if there is no open order for the specifed table. 
      */
     public Order getOrder( int restaurantID, int tableNum ){
-        UniqueTable table = new UniqueTable( restaurantID, tableNum ); 
-        return this.orders.get( table ); 
+        return this.orders.get( key( restaurantID, tableNum ) );
     }
     
     public Order getOrder( UniqueTable table ){
-        return this.orders.get(table); 
+        return getOrder( table.restaurantID, table.tableNumber ); 
+    }
+
+    /**
+     * addOrderItem: adds an item to the open order at a table.
+     * @param restaurantID
+     * @param tableNum
+     * @param item - the item to add.
+     * @return true if the table has an open order, false otherwise.
+     */
+    public boolean addOrderItem( int restaurantID, int tableNum, OrderItem item ){
+        this.compactionLock.readLock().lock();
+        try {
+            Order updated = this.orders.computeIfPresent( key( restaurantID, tableNum ), order -> {
+                order.addOrderItem( item );
+                order.touch();
+                record( JournalEntry.ADD_ITEM, restaurantID, tableNum, entry -> entry.item = item );
+                return order;
+            });
+            return updated != null;
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * removeMenuItemFromOrder: removes an item from the open order at a table.
+     * @param restaurantID
+     * @param tableNum
+     * @param menuItemID - the menu item to remove one of.
+     * @return true if the table has an open order, false otherwise.
+     */
+    public boolean removeMenuItemFromOrder( int restaurantID, int tableNum, int menuItemID ){
+        this.compactionLock.readLock().lock();
+        try {
+            Order updated = this.orders.computeIfPresent( key( restaurantID, tableNum ), order -> {
+                order.removeMenuItemFromOrder( menuItemID );
+                order.touch();
+                record( JournalEntry.REMOVE_ITEM, restaurantID, tableNum, entry -> entry.menuItemID = menuItemID );
+                return order;
+            });
+            return updated != null;
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * takeOrder: removes the open order at a table so it can be submitted.
+     * Once taken, no more items can be added to it.
+     * If submitting fails, put it back with restoreOrder.
+     * @param restaurantID
+     * @param tableNum
+     * @return the open order, or null if there is none.
+     */
+    public Order takeOrder( int restaurantID, int tableNum ){
+        Order[] taken = new Order[1];
+        this.compactionLock.readLock().lock();
+        try {
+            long key = key( restaurantID, tableNum );
+            this.orders.computeIfPresent( key, order -> {
+                taken[0] = order;
+                closed( key );
+                record( JournalEntry.COMPLETE, restaurantID, tableNum, entry -> {} );
+                return null;
+            });
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+        return taken[0];
+    }
+
+    /**
+     * restoreOrder: put back an order that was taken but could not be submitted.
+     * Does nothing if a new order was started at the table in the meantime.
+     * @param restaurantID
+     * @param tableNum
+     * @param order - the order returned by takeOrder.
+     * @return true if the order was put back.
+     */
+    public boolean restoreOrder( int restaurantID, int tableNum, Order order ){
+        this.compactionLock.readLock().lock();
+        try {
+            long key = key( restaurantID, tableNum );
+            Order current = this.orders.compute( key, existing -> {
+                if( existing != null ){
+                    return existing;
+                }
+                opened( key );
+                order.touch();
+                record( JournalEntry.ADD, restaurantID, tableNum, entry -> entry.order = order );
+                return order;
+            });
+            return current == order;
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
     }
 
 
@@ -65,12 +325,237 @@ public class OrderTracker{
      * @param tableNum
      */
     public void completeOrder( int restaurantID, int tableNum ){
-        UniqueTable table = new UniqueTable( restaurantID, tableNum ); 
-        this.orders.remove( table );  
+        takeOrder( restaurantID, tableNum );
     }
 
     public void completeOrder( UniqueTable table ){
-        this.orders.remove( table );  
+        completeOrder( table.restaurantID, table.tableNumber );  
+    }
+
+    /**
+     * expireIdleOrders: drop every order that has had no activity for the idle TTL.
+     * Runs on the maintenance thread, not while handling requests.
+     */
+    private void expireIdleOrders(){
+        long cutoff = System.currentTimeMillis() - this.idleTtlMs;
+        List<Long> idle = new ArrayList<Long>();
+        this.orders.forEach( ( key, order ) -> {
+            if( order.getLastActivity() < cutoff ){
+                idle.add( key );
+            }
+        });
+
+        int expired = 0;
+        for( long key : idle ){
+            if( dropIfIdleSince( key, cutoff ) ){
+                expired++;
+            }
+        }
+        this.expiredCount.addAndGet( expired );
+        if( expired > 0 ){
+            System.out.printf("Expired %d idle open orders.\n", expired );
+        }
+    }
+
+    /**
+     * evictOverLimit: drop a restaurant's least recently used orders
+     * until it is back down to its limit. Runs on the maintenance thread.
+     */
+    private void evictOverLimit( int restaurantID ){
+        //cleared first, so an order opened while this runs schedules another pass.
+        this.overLimit.remove( restaurantID );
+        Set<Long> keys = keysFor( restaurantID );
+        int openBefore = keys.size();
+
+        int evicted = 0;
+        while( keys.size() > this.maxPerRestaurant && evictIdlest( keys ) ){
+            evicted++;
+        }
+        this.evictedCount.addAndGet( evicted );
+        if( evicted > 0 ){
+            System.out.printf("Restaurant %d had %d open orders, over its limit of %d, dropped the %d idlest.\n",
+                    restaurantID, openBefore, this.maxPerRestaurant, evicted );
+        }
+    }
+
+    /**
+     * evictIdlest: drop the least recently used of a restaurant's orders.
+     * @param keys - the keys of the restaurant's open orders.
+     * @return true if an order was dropped.
+     */
+    private boolean evictIdlest( Set<Long> keys ){
+        long idlestKey = 0;
+        long idlestActivity = Long.MAX_VALUE;
+        for( long key : keys ){
+            Order order = this.orders.get( key );
+            if( order != null && order.getLastActivity() < idlestActivity ){
+                idlestKey = key;
+                idlestActivity = order.getLastActivity();
+            }
+        }
+        return idlestActivity != Long.MAX_VALUE && dropIfIdleSince( idlestKey, idlestActivity + 1 );
+    }
+
+    /**
+     * dropIfIdleSince: remove an order unless it was used at or after the cutoff.
+     * The activity is checked again while the entry is locked,
+     * so an order that was just used is never dropped.
+     * @return true if the order was removed.
+     */
+    private boolean dropIfIdleSince( long key, long cutoff ){
+        boolean[] dropped = { false };
+        this.compactionLock.readLock().lock();
+        try {
+            this.orders.computeIfPresent( key, order -> {
+                if( order.getLastActivity() >= cutoff ){
+                    return order;
+                }
+                dropped[0] = true;
+                closed( key );
+                record( JournalEntry.COMPLETE, restaurantOf( key ), (int) key, entry -> {} );
+                return null;
+            });
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+        return dropped[0];
+    }
+
+    /**
+     * getStats: the tracker's counters.
+     * @return the number of open orders, and how many have been dropped for being idle
+     * or to make room at a full restaurant since the server started.
+     */
+    public Map<String, Long> getStats(){
+        Map<String, Long> stats = new HashMap<String, Long>();
+        stats.put( "openOrders", (long) this.orders.size() );
+        stats.put( "expired", this.expiredCount.get() );
+        stats.put( "evicted", this.evictedCount.get() );
+        return stats;
+    }
+
+    /**
+     * record: append a change to the journal, if there is one.
+     * Called while the table's entry is locked, so the journal
+     * holds the changes to a table in the order they were made.
+     */
+    private void record( String op, int restaurantID, int tableNum, Consumer<JournalEntry> fill ){
+        if( this.journal == null ){
+            return;
+        }
+        JournalEntry entry = new JournalEntry( op, restaurantID, tableNum );
+        fill.accept( entry );
+        try {
+            this.journal.append( gson.toJson( entry ) );
+        } catch( IOException e ){
+            //the change still happens in memory, the journal catches up when it is rewritten.
+            this.journalBehind = true;
+            System.out.printf("Failed to journal an order change, the journal will be rewritten.\n" +
+                    "Exception: %s\n", e.toString() );
+        }
+    }
+
+    /**
+     * apply: replay one journal record into the map.
+     */
+    private void apply( String record ){
+        JournalEntry entry;
+        try {
+            entry = gson.fromJson( record, JournalEntry.class );
+        } catch( JsonSyntaxException e ){
+            System.out.printf("Skipping an unreadable order journal record.\n" +
+                    "Record: %s\nException: %s\n", record, e.toString() );
+            return;
+        }
+        if( entry == null || entry.op == null ){
+            return;
+        }
+
+        long key = key( entry.restaurantID, entry.tableNumber );
+        switch( entry.op ){
+            case JournalEntry.ADD:
+                if( entry.order != null ){
+                    entry.order.makeItemsConcurrent();
+                    this.orders.put( key, entry.order );
+                }
+                break;
+            case JournalEntry.ADD_ITEM:
+                this.orders.computeIfPresent( key, order -> {
+                    order.addOrderItem( entry.item );
+                    return order;
+                });
+                break;
+            case JournalEntry.REMOVE_ITEM:
+                this.orders.computeIfPresent( key, order -> {
+                    order.removeMenuItemFromOrder( entry.menuItemID );
+                    return order;
+                });
+                break;
+            case JournalEntry.COMPLETE:
+                this.orders.remove( key );
+                break;
+            default:
+                System.out.printf("Skipping an order journal record with unknown op %s.\n", entry.op );
+        }
+    }
+
+    /**
+     * snapshot: one ADD record for every open order.
+     */
+    private List<String> snapshot(){
+        List<String> records = new ArrayList<String>();
+        this.orders.forEach( ( key, order ) -> {
+            JournalEntry entry = new JournalEntry( JournalEntry.ADD, restaurantOf( key ), (int) key );
+            entry.order = order;
+            records.add( gson.toJson( entry ) );
+        });
+        return records;
+    }
+
+    /**
+     * compactIfNeeded: rewrite the journal as a snapshot of the open orders
+     * once it has grown past the compaction threshold, or a change could not be journaled.
+     */
+    private void compactIfNeeded(){
+        if( this.journal.getRecordCount() < this.compactThreshold && !this.journalBehind ){
+            return;
+        }
+
+        this.compactionLock.writeLock().lock();
+        try {
+            this.journalBehind = false;
+            this.journal.rewrite( snapshot() );
+        } catch( IOException e ){
+            this.journalBehind = true;
+            System.out.printf("Failed to compact the order journal.\n" +
+                    "Exception: %s\n", e.toString() );
+        } finally {
+            this.compactionLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * JournalEntry: one change to the tracker, as written to the journal.
+     */
+    private static class JournalEntry {
+        static final String ADD = "ADD";
+        static final String ADD_ITEM = "ADD_ITEM";
+        static final String REMOVE_ITEM = "REMOVE_ITEM";
+        static final String COMPLETE = "COMPLETE";
+
+        String op;
+        int restaurantID;
+        int tableNumber;
+        Order order;
+        OrderItem item;
+        int menuItemID;
+
+        JournalEntry( String op, int restaurantID, int tableNumber ){
+            this.op = op;
+            this.restaurantID = restaurantID;
+            this.tableNumber = tableNumber;
+        }
     }
 
 }
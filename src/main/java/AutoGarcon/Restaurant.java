@@ -31,6 +31,7 @@ public class Restaurant {
     private int numTables; 
     private float salesTax; 
     private String imageURL; 
+    private String timeZone; 
 
 
     /**
@@ -56,110 +57,83 @@ public class Restaurant {
     }
 
     public Restaurant( int restaurantID, boolean withMenus){
-        ResultSet result = DBUtil.getRestaurant( restaurantID ); 
+        this(); 
 
-        //if result is null return a default restaurant. 
+        Restaurant result = DBUtil.getRestaurant( restaurantID, rs -> {
+            readRow( rs ); 
+            this.salesTax = rs.getFloat("salesTax");
+            return this; 
+        });
+
+        //if there is no such restaurant keep the default fields. 
         if( result == null ){
-            this.restaurantID = -1; 
-            this.restaurantName = "Default Restaurant"; 
-            this.address = ""; 
+            return; 
         }
 
-        try{
-            result.next(); 
-            this.restaurantID = result.getInt("restaurantID"); 
-            this.restaurantName = result.getString("restaurantName");  
-            this.description = result.getString("description"); 
-            this.address = result.getString("address"); 
-            this.city = result.getString("city");
-            this.state = result.getString("state"); 
-            this.zipCode = result.getInt("zipCode"); 
-            this.country = result.getString("country");
-            this.primaryColor = result.getString("primaryColor");
-            this.secondaryColor = result.getString("secondaryColor");
-            this.salesTax = result.getFloat("salesTax");
-            if(withMenus){
-                int currentTime = Main.getCurrentTimestamp();
-                this.menus = Menu.allAvailableMenus(this.restaurantID, currentTime);
-            }
-            this.imageURL = ImageUtil.getRestaurantImageURL(this.restaurantID);
+        if(withMenus){
+            this.menus = Menu.allAvailableMenus(this.restaurantID);
         }
-        catch( SQLException e ){
-            System.out.printf("Failed to get the required fields while creating a restaurant Object.\n" + 
-                   "Exception: %s.\n", e.toString() );
+        this.imageURL = ImageUtil.getRestaurantImageURL(this.restaurantID);
+    }
 
-        }
+    /**
+     * fromRow: create a restaurant from a sql result row. 
+     * @param result - the result of the SQL query. 
+     * @return Restaurant with the fields from the row. 
+     */
+    private static Restaurant fromRow( ResultSet result ) throws SQLException {
+        Restaurant restaurant = new Restaurant();
+        restaurant.readRow( result ); 
+        return restaurant; 
     }
 
-    public static ArrayList<Restaurant> getFavorites(int userID){
-        ResultSet result = DBUtil.getFavoriteRestaurants( userID );
-        boolean hasResult;
-        ArrayList<Restaurant> list = new ArrayList<Restaurant>();  
+    /**
+     * readRow: fill in the restaurant's fields from a sql result row. 
+     * @param result - the result of the SQL query. 
+     */
+    private void readRow( ResultSet result ) throws SQLException {
+        this.restaurantID = result.getInt("restaurantID"); 
+        this.restaurantName = result.getString("restaurantName");  
+        this.description = result.getString("description"); 
+        this.address = result.getString("address"); 
+        this.city = result.getString("city");
+        this.state = result.getString("state"); 
+        this.zipCode = result.getInt("zipCode"); 
+        this.country = result.getString("country");
+        this.primaryColor = result.getString("primaryColor");
+        this.secondaryColor = result.getString("secondaryColor");
+        this.timeZone = readTimeZone( result ); 
+    }
 
-        //if result is null return an empty list
-        if( result == null ){
-            return list;
+    /**
+     * readTimeZone: get the restaurant's time zone id from a sql result row. 
+     * Restaurants added before time zones were stored have no timeZone column, 
+     * and use the server's zone. 
+     * @param result - the result of the SQL query. 
+     * @return the zone id, or null if the row has none. 
+     */
+    static String readTimeZone( ResultSet result ){
+        try {
+            return result.getString("timeZone"); 
+        } catch( SQLException e ){
+            return null; 
         }
+    }
 
-        try{
-            hasResult = result.next();
-            while(hasResult){
-                //fill restaurant object
-                Restaurant restaurant = new Restaurant();
-                restaurant.restaurantID = result.getInt("restaurantID"); 
-                restaurant.restaurantName = result.getString("restaurantName");  
-                restaurant.description = result.getString("description"); 
-                restaurant.address = result.getString("address"); 
-                restaurant.city = result.getString("city");
-                restaurant.state = result.getString("state"); 
-                restaurant.zipCode = result.getInt("zipCode"); 
-                restaurant.country = result.getString("country");
-                restaurant.primaryColor = result.getString("primaryColor");
-                restaurant.secondaryColor = result.getString("secondaryColor");
-                restaurant.menus = Menu.allMenusWithoutItems(restaurant.restaurantID);
-                restaurant.imageURL = ImageUtil.getRestaurantImageURL( restaurant.restaurantID ); 
-                
-                //add to list
-                list.add(restaurant);
-                hasResult = result.next();
-            }
-            return list;
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get the required fields while creating a restaurant Object.\n" + 
-                   "Exception: %s.\n", e.toString() );
-            //return empty list
-            return new ArrayList<Restaurant>();
+    public static ArrayList<Restaurant> getFavorites(int userID){
+        ArrayList<Restaurant> list = DBUtil.getFavoriteRestaurants( userID, Restaurant::fromRow );
 
+        for( Restaurant restaurant : list ){
+            restaurant.menus = Menu.allMenusWithoutItems(restaurant.restaurantID);
+            restaurant.imageURL = ImageUtil.getRestaurantImageURL( restaurant.restaurantID ); 
         }
+        return list;
     }
 
 
     public static Restaurant[] getAllRestaurants(){
-        ArrayList<Restaurant> restaurants = new ArrayList<Restaurant>(); 
-        ResultSet result = DBUtil.getAllRestaurants(); 
-        try{
-            while( result.next() ){
-                //fill restaurant object
-                Restaurant restaurant = new Restaurant();
-                restaurant.restaurantID = result.getInt("restaurantID"); 
-                restaurant.restaurantName = result.getString("restaurantName");  
-                restaurant.description = result.getString("description"); 
-                restaurant.address = result.getString("address"); 
-                restaurant.city = result.getString("city");
-                restaurant.state = result.getString("state"); 
-                restaurant.zipCode = result.getInt("zipCode"); 
-                restaurant.country = result.getString("country");
-                restaurant.primaryColor = result.getString("primaryColor");
-                restaurant.secondaryColor = result.getString("secondaryColor");
-                //restaurant.menus = Menu.allMenusWithoutItems(restaurant.restaurantID);
-                restaurants.add(restaurant); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get the required fields while creating a restaurant Object.\n" + 
-                   "Exception: %s.\n", e.toString() );
-        }
+        ArrayList<Restaurant> restaurants = DBUtil.getAllRestaurants( Restaurant::fromRow ); 
+        //restaurant.menus = Menu.allMenusWithoutItems(restaurant.restaurantID);
         return restaurants.toArray( new Restaurant[ restaurants.size() ] );
     }
 
@@ -171,7 +145,7 @@ public class Restaurant {
      */
     public static Restaurant restaurantFromJson( String body){
 
-        Gson gson = new Gson(); 
+        Gson gson = JsonTransformer.gson(); 
         Restaurant restaurant = new Restaurant(); 
 
         try { 
@@ -204,6 +178,19 @@ public class Restaurant {
         return this.restaurantID;
     }
 
+    /**
+     * saveTimeZone: save the zone the restaurant's menu times are in, after save(). 
+     * @return true if it was saved, or the restaurant has no time zone to save. 
+     */
+    public boolean saveTimeZone(){
+        if( this.timeZone == null ){
+            return true; 
+        }
+        boolean saved = DBUtil.saveRestaurantTimeZone( this.restaurantID, this.timeZone ); 
+        MenuSchedule.invalidateZone( this.restaurantID ); 
+        return saved; 
+    }
+
     public int getRestaurantID() {
         return this.restaurantID;
     }
@@ -244,6 +231,14 @@ public class Restaurant {
         return this.salesTax; 
     }
 
+    public String getTimeZone(){
+        return this.timeZone; 
+    }
+
+    public void setTimeZone(String timeZone){
+        this.timeZone = timeZone; 
+    }
+
     public int getNumTables() {
         return this.numTables; 
     }
@@ -0,0 +1,145 @@
+package AutoGarcon;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * RestaurantCache: Keeps rendered restaurant responses in memory.
+ *
+ * The restaurant list and each restaurant's withmenus response are rendered
+ * to JSON once, and sent again until something in them changes.
+ * A withmenus response holds the menus available right now, so it is kept
+ * along with the MenuSchedule segment it was rendered for, and rendered again
+ * once the time of day moves into another segment or the menus change.
+ *
+ * The restaurant list is dropped when a restaurant is added. At most
+ * RESTAURANT_CACHE_MAX_RESTAURANTS restaurants are kept, the least recently
+ * used are dropped first, and everything is reloaded after
+ * RESTAURANT_CACHE_TTL_MS, which also picks up new restaurant images.
+ */
+public class RestaurantCache {
+
+    private static final int MAX_RESTAURANTS = Integer.getInteger("RESTAURANT_CACHE_MAX_RESTAURANTS", 1000);
+    static final long TTL_MS = Long.getLong("RESTAURANT_CACHE_TTL_MS", 10 * 60 * 1000L);
+    private static final Gson gson = JsonTransformer.gson();
+
+    //access ordered, so the eldest entry is the least recently used.
+    private static final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>( 16, 0.75f, true ){
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Integer, Entry> eldest ){
+            return size() > MAX_RESTAURANTS;
+        }
+    };
+
+    private static volatile Timed allRestaurants;
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * allRestaurants: the response for every restaurant.
+     */
+    public static CachedJson allRestaurants(){
+        Timed all = allRestaurants;
+        if( all != null && all.expiresAt > System.currentTimeMillis() ){
+            return all.json;
+        }
+
+        long seen = version.get();
+        Restaurant[] restaurants = Restaurant.getAllRestaurants();
+        all = new Timed( CachedJson.of( new Restaurants( restaurants ) ) );
+
+        //an empty result may be a failed query, so try again next time.
+        if( restaurants.length > 0 ){
+            synchronized( RestaurantCache.class ){
+                if( version.get() == seen ){
+                    allRestaurants = all;
+                }
+            }
+        }
+        return all.json;
+    }
+
+    /**
+     * withMenus: the response for a restaurant and the menus it offers right now.
+     * @param restaurantID - the restaurant to get.
+     */
+    public static CachedJson withMenus( int restaurantID ){
+        Entry entry;
+        synchronized( entries ){
+            entry = entries.get( restaurantID );
+        }
+        if( entry == null || entry.expiresAt <= System.currentTimeMillis() ){
+            Restaurant restaurant = new Restaurant( restaurantID, false );
+            if( restaurant.isDefault() ){
+                return CachedJson.of( restaurant );
+            }
+            entry = new Entry( restaurant );
+            synchronized( entries ){
+                entries.put( restaurantID, entry );
+            }
+        }
+
+        Menu[] active = MenuSchedule.activeNow( restaurantID );
+        Rendered rendered = entry.rendered;
+        if( rendered == null || rendered.active != active ){
+            JsonObject tree = gson.toJsonTree( entry.restaurant ).getAsJsonObject();
+            tree.add( "menus", gson.toJsonTree( active ) );
+            rendered = new Rendered( active, CachedJson.of( tree ) );
+            entry.rendered = rendered;
+        }
+        return rendered.json;
+    }
+
+    /**
+     * invalidate: record that a restaurant was added, so the restaurant list is rendered again.
+     */
+    public static synchronized void invalidate(){
+        version.incrementAndGet();
+        allRestaurants = null;
+    }
+
+
+    /**
+     * Timed: a response and when it has to be rendered again.
+     */
+    private static class Timed {
+        final CachedJson json;
+        final long expiresAt;
+
+        Timed( CachedJson json ){
+            this.json = json;
+            this.expiresAt = System.currentTimeMillis() + TTL_MS;
+        }
+    }
+
+    /**
+     * Entry: a restaurant without menus, and its last withmenus response.
+     */
+    private static class Entry {
+        final Restaurant restaurant;
+        final long expiresAt;
+        volatile Rendered rendered;
+
+        Entry( Restaurant restaurant ){
+            this.restaurant = restaurant;
+            this.expiresAt = System.currentTimeMillis() + TTL_MS;
+        }
+    }
+
+    /**
+     * Rendered: a withmenus response and the menus it was rendered with.
+     * The menus are the schedule's own array for a segment, so comparing
+     * them by identity tells if the segment or the schedule has changed.
+     */
+    private static class Rendered {
+        final Menu[] active;
+        final CachedJson json;
+
+        Rendered( Menu[] active, CachedJson json ){
+            this.active = active;
+            this.json = json;
+        }
+    }
+}
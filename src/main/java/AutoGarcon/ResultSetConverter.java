@@ -4,9 +4,19 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.JSONException;
 
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
 import java.sql.SQLException;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Base64;
 
 // https://stackoverflow.com/questions/6514876/most-efficient-conversion-of-resultset-to-json
 // Gord Thompson
@@ -74,4 +84,148 @@ public class ResultSetConverter {
 
     return json;
   }
-}
\ No newline at end of file
+
+  /**
+   * ColumnWriter: writes one column of the current row as a JSON value.
+   */
+  private interface ColumnWriter {
+    void write( ResultSet rs, int column, JsonWriter out ) throws SQLException, IOException;
+  }
+
+  /**
+   * stream: write every row of a result set to an outputstream as a JSON array of objects.
+   * @param rs - the result set, positioned before the first row.
+   * @param out - the stream to write to, it is flushed but not closed.
+   */
+  public static void stream( ResultSet rs, OutputStream out )
+    throws SQLException, IOException
+  {
+    JsonWriter writer = new JsonWriter( new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) );
+    stream( rs, writer );
+    writer.flush();
+  }
+
+  /**
+   * stream: write every row of a result set as a JSON array of objects.
+   * Unlike convert, each row is written as soon as it is read, so the rows
+   * are never all in memory at once. The column names and types are looked up
+   * once, each column gets a writer for its type, and cells are read by index.
+   * SQL nulls are written as JSON nulls, and so are NaN and infinite numbers,
+   * which JSON has no way to write.
+   * @param rs - the result set, positioned before the first row.
+   * @param out - the writer to write the array to.
+   */
+  public static void stream( ResultSet rs, JsonWriter out )
+    throws SQLException, IOException
+  {
+    stream( rs, out, null );
+  }
+
+  /**
+   * stream: write every row of a result set as a JSON array of objects,
+   * keeping track of one integer column, i.e. to find where the next page starts.
+   * @param rs - the result set, positioned before the first row.
+   * @param out - the writer to write the array to.
+   * @param keyColumn - the name of the column to keep track of, or null for none.
+   * @return the keyColumn value of the last row, or -1 if there were no rows.
+   */
+  public static long stream( ResultSet rs, JsonWriter out, String keyColumn )
+    throws SQLException, IOException
+  {
+    ResultSetMetaData rsmd = rs.getMetaData();
+    int numColumns = rsmd.getColumnCount();
+    String[] names = new String[ numColumns + 1 ];
+    ColumnWriter[] writers = new ColumnWriter[ numColumns + 1 ];
+    int keyIndex = 0;
+    for (int i=1; i<numColumns+1; i++) {
+      names[i] = rsmd.getColumnName(i);
+      writers[i] = writerFor( rsmd.getColumnType(i) );
+      if( names[i].equals( keyColumn ) ){
+        keyIndex = i;
+      }
+    }
+
+    long lastKey = -1;
+    out.beginArray();
+    while(rs.next()) {
+      if( keyColumn != null && keyIndex == 0 ){
+        throw new SQLException( "Column '" + keyColumn + "' not found." );
+      }
+      out.beginObject();
+      for (int i=1; i<numColumns+1; i++) {
+        out.name( names[i] );
+        writers[i].write( rs, i, out );
+      }
+      out.endObject();
+      if( keyIndex > 0 ){
+        lastKey = rs.getLong( keyIndex );
+      }
+    }
+    out.endArray();
+    return lastKey;
+  }
+
+  private static boolean isFinite( double value ){
+    return !Double.isNaN( value ) && !Double.isInfinite( value );
+  }
+
+  private static ColumnWriter writerFor( int type ){
+    switch( type ){
+      case Types.BIGINT:
+        return (rs, i, out) -> {
+          long value = rs.getLong(i);
+          if( rs.wasNull() ) out.nullValue(); else out.value( value );
+        };
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+        return (rs, i, out) -> {
+          int value = rs.getInt(i);
+          if( rs.wasNull() ) out.nullValue(); else out.value( value );
+        };
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return (rs, i, out) -> {
+          boolean value = rs.getBoolean(i);
+          if( rs.wasNull() ) out.nullValue(); else out.value( value );
+        };
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.REAL:
+        return (rs, i, out) -> {
+          double value = rs.getDouble(i);
+          if( rs.wasNull() || Double.isNaN( value ) || Double.isInfinite( value ) ) out.nullValue(); else out.value( value );
+        };
+      case Types.NVARCHAR:
+      case Types.NCHAR:
+        return (rs, i, out) -> out.value( rs.getNString(i) );
+      case Types.VARCHAR:
+      case Types.CHAR:
+        return (rs, i, out) -> out.value( rs.getString(i) );
+      case Types.BLOB:
+        return (rs, i, out) -> {
+          Blob blob = rs.getBlob(i);
+          if( blob == null ){
+            out.nullValue();
+          } else {
+            out.value( Base64.getEncoder().encodeToString( blob.getBytes( 1, (int) blob.length() ) ) );
+          }
+        };
+      default:
+        return (rs, i, out) -> {
+          Object value = rs.getObject(i);
+          if( value == null ){
+            out.nullValue();
+          } else if( ( value instanceof Double || value instanceof Float ) && !isFinite( ( (Number) value ).doubleValue() ) ){
+            out.nullValue();
+          } else if( value instanceof Number ){
+            out.value( (Number) value );
+          } else if( value instanceof Boolean ){
+            out.value( (Boolean) value );
+          } else {
+            out.value( value.toString() );
+          }
+        };
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package AutoGarcon;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+
+/**
+ * RowMapper: Turns the current row of a result set into an object.
+ *
+ * DBUtil calls the mapper once per row while the statement is still open,
+ * then closes the statement and gives the connection back to the pool.
+ * So a mapper should only read columns from the row,
+ * and never run more queries of its own.
+ */
+public interface RowMapper<T> {
+
+    /**
+     * map: create an object from the current row.
+     * @param rs - result set positioned on the row to map.
+     * @return the object for this row.
+     */
+    T map( ResultSet rs ) throws SQLException;
+}
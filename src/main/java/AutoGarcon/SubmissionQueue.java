@@ -0,0 +1,499 @@
+package AutoGarcon;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SubmissionQueue: Saves submitted orders to the database in the background.
+ *
+ * The submit handlers used to hold the request open for the whole database save.
+ * Now a submitted order is written to the "submissions" Journal and synced to disk,
+ * the client gets back a handle right away, and writer threads save queued
+ * orders to the database, several at a time in one transaction.
+ * Orders still in the journal when the server stops are queued again at startup.
+ *
+ * A batch that fails is retried one order at a time, so one bad order can not
+ * hold up the rest. Connection problems, including a busy connection pool, are
+ * retried with backoff for as long as they last, the order is safe in the journal
+ * meanwhile. Other errors fail the order, and the kitchen is told through KitchenFeed.
+ * Each order is saved with its handle, so an order saved just before a crash,
+ * and queued again at startup, is not saved twice.
+ *
+ * Settings are read from System Properties, all are optional:
+ *  SUBMIT_QUEUE - set to false to save orders while the client waits, as before.
+ *  SUBMIT_WRITERS - number of writer threads.
+ *  SUBMIT_BATCH_SIZE - most orders saved in one transaction.
+ *  SUBMIT_MAX_ATTEMPTS - tries before an order that hit an unexpected error is marked failed.
+ *  SUBMIT_RETRY_MAX_MS - longest wait between tries.
+ */
+public class SubmissionQueue {
+
+    public enum Status {
+        QUEUED,
+        SAVED,
+        FAILED
+    }
+
+    private static final long RETRY_BASE_MS = 500;
+    private static final long COMPACT_CHECK_PERIOD_MS = 30000;
+    private static final int COMPACT_RECORDS = 10000;
+    private static final int FINISHED_TO_KEEP = 10000;
+    private static final Gson gson = JsonTransformer.gson();
+
+    private final Journal journal;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryMaxMs;
+
+    private final LinkedBlockingQueue<Submission> queue;
+    private final Map<String, Submission> pending;
+    private final Map<String, Submission> finished;
+    private final ScheduledExecutorService retries;
+
+    private final AtomicInteger inFlight;
+    private final AtomicLong savedCount;
+    private final AtomicLong failedCount;
+    private final AtomicLong retryCount;
+    private final AtomicLong batchCount;
+    private final AtomicLong totalDrainMs;
+    private final AtomicLong maxDrainMs;
+
+    /**
+     * Holder: creates the instance the first time getInstance is called.
+     */
+    private static class Holder {
+        static final SubmissionQueue INSTANCE = new SubmissionQueue();
+    }
+
+    public static SubmissionQueue getInstance(){
+        return Holder.INSTANCE;
+    }
+
+    private SubmissionQueue(){
+        this.batchSize = Math.max( 1, Integer.getInteger("SUBMIT_BATCH_SIZE", 20) );
+        this.maxAttempts = Math.max( 1, Integer.getInteger("SUBMIT_MAX_ATTEMPTS", 10) );
+        this.retryMaxMs = Math.max( RETRY_BASE_MS, Long.getLong("SUBMIT_RETRY_MAX_MS", 30000L) );
+        this.queue = new LinkedBlockingQueue<Submission>();
+        this.pending = new ConcurrentHashMap<String, Submission>();
+        this.finished = Collections.synchronizedMap( new LinkedHashMap<String, Submission>( 16, 0.75f, false ){
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Submission> eldest ){
+                return size() > FINISHED_TO_KEEP;
+            }
+        });
+        this.inFlight = new AtomicInteger();
+        this.savedCount = new AtomicLong();
+        this.failedCount = new AtomicLong();
+        this.retryCount = new AtomicLong();
+        this.batchCount = new AtomicLong();
+        this.totalDrainMs = new AtomicLong();
+        this.maxDrainMs = new AtomicLong();
+
+        this.retries = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread t = new Thread( r, "submission-maintenance" );
+            t.setDaemon( true );
+            return t;
+        });
+
+        this.journal = openJournal();
+        if( this.journal == null ){
+            return;
+        }
+
+        int writers = Math.max( 1, Integer.getInteger("SUBMIT_WRITERS", 2) );
+        for( int i = 0; i < writers; i++ ){
+            Thread writer = new Thread( this::drain, "submission-writer-" + i );
+            writer.setDaemon( true );
+            writer.start();
+        }
+        this.retries.scheduleWithFixedDelay( this::compactIfNeeded,
+                COMPACT_CHECK_PERIOD_MS, COMPACT_CHECK_PERIOD_MS, TimeUnit.MILLISECONDS );
+        Runtime.getRuntime().addShutdownHook( new Thread( this.journal::close ) );
+    }
+
+    /**
+     * openJournal: open the submissions journal and queue any orders not yet saved.
+     * @return the journal, or null if the queue is turned off or the journal could not be opened.
+     */
+    private Journal openJournal(){
+        if( !Boolean.parseBoolean( System.getProperty("SUBMIT_QUEUE", "true") ) ){
+            return null;
+        }
+
+        try {
+            Journal journal = new Journal("submissions");
+            journal.replay( this::apply );
+            for( Submission submission : this.pending.values() ){
+                submission.order.makeItemsConcurrent();
+                this.queue.add( submission );
+            }
+            rememberIdempotencyKeys();
+            if( !this.pending.isEmpty() ){
+                System.out.printf("Queued %d orders that were submitted before the restart.\n", this.pending.size() );
+            }
+            journal.rewrite( snapshot() );
+            return journal;
+        } catch( IOException e ){
+            System.out.printf("Failed to open the submissions journal, orders will be saved while the client waits.\n" +
+                    "Exception: %s\n", e.toString() );
+            return null;
+        }
+    }
+
+    /**
+     * isEnabled: whether orders can be queued, if not callers should save the order themselves.
+     */
+    public boolean isEnabled(){
+        return this.journal != null;
+    }
+
+    /**
+     * submit: queue an order to be saved.
+     * Returns once the order is safely on disk, not once it is in the database.
+     * @param order - an order that passed Order.hasValidItems(), with its restaurantID set.
+     * @param idempotencyKey - the key the order was submitted with, or null.
+     * It is saved with the order so retries are still recognized after a restart.
+     * @return the submission, its handle can be used to check on the order later.
+     * @throws IOException if the order could not be written to disk, it is not queued.
+     */
+    public Submission submit( Order order, String idempotencyKey ) throws IOException {
+        Submission submission = new Submission( UUID.randomUUID().toString(), order );
+        submission.idempotencyKey = idempotencyKey;
+
+        //track it before it is journaled, so a compaction in between still keeps it.
+        this.pending.put( submission.handle, submission );
+        try {
+            this.journal.append( gson.toJson( new JournalEntry( JournalEntry.SUBMIT, submission ) ) );
+            this.journal.sync();
+        } catch( IOException e ){
+            this.pending.remove( submission.handle );
+            throw e;
+        }
+
+        this.queue.add( submission );
+        return submission;
+    }
+
+    /**
+     * rememberIdempotencyKeys: after a restart, answer retries of orders 
+     * that are queued or were saved with their original response. 
+     * Failed orders are left out so a retry submits them again. 
+     */
+    private void rememberIdempotencyKeys(){
+        for( Submission submission : this.pending.values() ){
+            if( submission.idempotencyKey != null ){
+                IdempotencyStore.remember( submission.idempotencyKey, 202, submission );
+            }
+        }
+        synchronized( this.finished ){
+            for( Submission submission : this.finished.values() ){
+                if( submission.idempotencyKey != null && submission.status == Status.SAVED ){
+                    IdempotencyStore.remember( submission.idempotencyKey, 202, submission );
+                }
+            }
+        }
+    }
+
+    /**
+     * getSubmission: look up a submission by its handle.
+     * @return the submission, or null if it is unknown or finished long ago.
+     */
+    public Submission getSubmission( String handle ){
+        Submission submission = this.pending.get( handle );
+        return submission != null ? submission : this.finished.get( handle );
+    }
+
+    /**
+     * drain: the writer threads' loop, save queued orders in batches.
+     */
+    private void drain(){
+        List<Submission> batch = new ArrayList<Submission>();
+        while( true ){
+            try {
+                batch.add( this.queue.take() );
+            } catch( InterruptedException e ){
+                return;
+            }
+            this.queue.drainTo( batch, this.batchSize - 1 );
+            this.inFlight.addAndGet( batch.size() );
+            try {
+                saveBatch( batch );
+            } catch( RuntimeException e ){
+                System.out.printf("Unexpected error while saving queued orders.\n" +
+                        "Exception: %s\n", e.toString() );
+                for( Submission submission : batch ){
+                    if( submission.status == Status.QUEUED ){
+                        //a bug, not the database, so only retried a few times.
+                        retryOrFail( submission, e.toString(), submission.attempts + 1 < this.maxAttempts );
+                    }
+                }
+            } finally {
+                this.inFlight.addAndGet( -batch.size() );
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * saveBatch: save the orders in one transaction,
+     * if that fails save them one at a time so only the bad ones fail.
+     */
+    private void saveBatch( List<Submission> batch ){
+        for( Submission submission : batch ){
+            submission.order.setSubmissionHandle( submission.handle );
+        }
+        if( batch.size() > 1 ){
+            List<Order> orders = new ArrayList<Order>();
+            for( Submission submission : batch ){
+                orders.add( submission.order );
+            }
+            try {
+                DBUtil.saveOrders( orders );
+                this.batchCount.incrementAndGet();
+                for( Submission submission : batch ){
+                    saved( submission );
+                }
+                return;
+            } catch( SQLException e ){
+                System.out.printf("Failed to save a batch of %d orders, saving them one at a time.\n" +
+                        "Exception: %s\n", batch.size(), e.toString() );
+            }
+        }
+
+        for( Submission submission : batch ){
+            try {
+                DBUtil.saveOrders( Arrays.asList( submission.order ) );
+                this.batchCount.incrementAndGet();
+                saved( submission );
+            } catch( SQLException e ){
+                retryOrFail( submission, e.toString(), isTransient( e ) );
+            }
+        }
+    }
+
+    /**
+     * isTransient: whether trying again later may work, the database
+     * could not be reached or every pooled connection was in use.
+     */
+    static boolean isTransient( SQLException e ){
+        if( e instanceof SQLTransientException || e instanceof SQLRecoverableException ){
+            return true;
+        }
+        //SQL state class 08 is a connection problem.
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    private void saved( Submission submission ){
+        submission.orderID = submission.order.getOrderID();
+        finish( submission, Status.SAVED, null );
+        this.savedCount.incrementAndGet();
+
+        long drainMs = System.currentTimeMillis() - submission.queuedAt;
+        this.totalDrainMs.addAndGet( drainMs );
+        this.maxDrainMs.accumulateAndGet( drainMs, Math::max );
+
+        submission.order.notifyKitchen();
+    }
+
+    /**
+     * retryOrFail: try an order again later if the error may pass, otherwise mark it failed.
+     * Retries wait twice as long each time, up to retryMaxMs, and never give up.
+     */
+    private void retryOrFail( Submission submission, String error, boolean isTransient ){
+        submission.attempts++;
+        if( !isTransient ){
+            System.out.printf("Giving up on saving order %s after %d attempts.\n" +
+                    "Error: %s\n", submission.handle, submission.attempts, error );
+            finish( submission, Status.FAILED, error );
+            this.failedCount.incrementAndGet();
+            if( submission.order.getRestaurantID() >= 0 ){
+                KitchenFeed.orderFailed( submission.order.getRestaurantID(), submission.handle, submission.order, error );
+            }
+            return;
+        }
+
+        this.retryCount.incrementAndGet();
+        long delay = Math.min( RETRY_BASE_MS << Math.min( submission.attempts - 1, 20 ), this.retryMaxMs );
+        if( submission.attempts % 10 == 0 ){
+            System.out.printf("Still retrying order %s after %d attempts.\n" +
+                    "Error: %s\n", submission.handle, submission.attempts, error );
+        }
+        this.retries.schedule( () -> this.queue.add( submission ), delay, TimeUnit.MILLISECONDS );
+    }
+
+    private void finish( Submission submission, Status status, String error ){
+        submission.error = error;
+        submission.status = status;
+        this.finished.put( submission.handle, submission );
+        this.pending.remove( submission.handle );
+        try {
+            this.journal.append( gson.toJson( new JournalEntry( JournalEntry.FINISH, submission ) ) );
+            this.journal.sync();
+        } catch( IOException e ){
+            System.out.printf("Failed to journal that order %s is %s, it is checked again after a restart.\n" +
+                    "Exception: %s\n", submission.handle, status, e.toString() );
+        }
+    }
+
+    /**
+     * getStats: the queue's counters.
+     * @return queue depth, orders being saved, totals since startup,
+     * and how long orders waited between being submitted and saved.
+     */
+    public Map<String, Long> getStats(){
+        Map<String, Long> stats = new HashMap<String, Long>();
+        long saved = this.savedCount.get();
+        stats.put( "queued", (long) this.queue.size() );
+        stats.put( "saving", (long) this.inFlight.get() );
+        stats.put( "pending", (long) this.pending.size() );
+        stats.put( "saved", saved );
+        stats.put( "failed", this.failedCount.get() );
+        stats.put( "retries", this.retryCount.get() );
+        stats.put( "transactions", this.batchCount.get() );
+        stats.put( "averageDrainMs", saved == 0 ? 0 : this.totalDrainMs.get() / saved );
+        stats.put( "maxDrainMs", this.maxDrainMs.get() );
+        return stats;
+    }
+
+    /**
+     * apply: replay one journal record.
+     */
+    private void apply( String record ){
+        JournalEntry entry;
+        try {
+            entry = gson.fromJson( record, JournalEntry.class );
+        } catch( JsonSyntaxException e ){
+            System.out.printf("Skipping an unreadable submissions journal record.\n" +
+                    "Record: %s\nException: %s\n", record, e.toString() );
+            return;
+        }
+        if( entry == null || entry.submission == null ){
+            return;
+        }
+
+        entry.submission.idempotencyKey = entry.idempotencyKey;
+        if( JournalEntry.SUBMIT.equals( entry.op ) ){
+            if( entry.order == null ){
+                return;
+            }
+            entry.submission.order = entry.order;
+            entry.submission.status = Status.QUEUED;
+            this.pending.put( entry.submission.handle, entry.submission );
+        } else if( JournalEntry.FINISH.equals( entry.op ) ){
+            this.pending.remove( entry.submission.handle );
+            this.finished.put( entry.submission.handle, entry.submission );
+        }
+    }
+
+    /**
+     * snapshot: the records needed to recreate the queue,
+     * one per order not yet saved, plus the recently finished ones.
+     */
+    private List<String> snapshot(){
+        List<String> records = new ArrayList<String>();
+        synchronized( this.finished ){
+            for( Submission submission : this.finished.values() ){
+                records.add( gson.toJson( new JournalEntry( JournalEntry.FINISH, submission ) ) );
+            }
+        }
+        for( Submission submission : this.pending.values() ){
+            records.add( gson.toJson( new JournalEntry( JournalEntry.SUBMIT, submission ) ) );
+        }
+        return records;
+    }
+
+    /**
+     * compactIfNeeded: rewrite the journal once it is mostly finished submissions.
+     * Holding the journal's lock keeps submissions from being appended in the meantime.
+     */
+    private void compactIfNeeded(){
+        if( this.journal.getRecordCount() < COMPACT_RECORDS ){
+            return;
+        }
+        synchronized( this.journal ){
+            try {
+                this.journal.rewrite( snapshot() );
+            } catch( IOException e ){
+                System.out.printf("Failed to compact the submissions journal.\n" +
+                        "Exception: %s\n", e.toString() );
+            }
+        }
+    }
+
+
+    /**
+     * Submission: an order waiting to be saved, or recently saved.
+     * Sent back to the client to report on the order.
+     */
+    public static class Submission {
+        private final String handle;
+        private transient Order order;
+        private volatile Status status;
+        private volatile Integer orderID;
+        private volatile String error;
+        private final long queuedAt;
+        private transient int attempts;
+        private transient String idempotencyKey;
+
+        Submission( String handle, Order order ){
+            this.handle = handle;
+            this.order = order;
+            this.status = Status.QUEUED;
+            this.queuedAt = System.currentTimeMillis();
+        }
+
+        public String getHandle(){
+            return this.handle;
+        }
+
+        public Status getStatus(){
+            return this.status;
+        }
+
+        public Integer getOrderID(){
+            return this.orderID;
+        }
+    }
+
+    /**
+     * JournalEntry: one record in the submissions journal.
+     * The order itself is only written with SUBMIT.
+     */
+    private static class JournalEntry {
+        static final String SUBMIT = "SUBMIT";
+        static final String FINISH = "FINISH";
+
+        String op;
+        Submission submission;
+        Order order;
+        String idempotencyKey;
+
+        JournalEntry( String op, Submission submission ){
+            this.op = op;
+            this.submission = submission;
+            this.idempotencyKey = submission.idempotencyKey;
+            if( SUBMIT.equals( op ) ){
+                this.order = submission.order;
+            }
+        }
+    }
+}
@@ -39,15 +39,7 @@ public class Table {
      * @return the table object associated with the alexaID.
      */
     public static Table tableFromTableID( int restaurantID, int tableNum ){
-        ResultSet rs = DBUtil.getTable( restaurantID, tableNum ); 
-        try{
-            rs.next();
-        }
-        catch(SQLException e){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
-        return tableFromResultSet( rs ); 
+        return DBUtil.getTable( restaurantID, tableNum, Table::tableFromResultSet ); 
     }
 
     /**
@@ -57,15 +49,7 @@ public class Table {
      * @return the table object associated with the alexaID.
      */
     public static Table tableFromAlexaID( String alexaID ){
-        ResultSet rs = DBUtil.getTable( alexaID ); 
-        try{
-            rs.next();
-        }
-        catch(SQLException e){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
-        return tableFromResultSet( rs ); 
+        return DBUtil.getTable( alexaID, Table::tableFromResultSet ); 
     }
 
 
@@ -76,18 +60,7 @@ public class Table {
      */
     public static Table[] getAllTables( int restaurantID ){
 
-        ArrayList<Table> tables = new ArrayList<Table>();  
-        ResultSet rs = DBUtil.getAllTables( restaurantID ); 
-        try{
-            while( rs.next() ){
-                Table table = tableFromResultSet( rs );
-                tables.add( table ); 
-            }
-        }
-        catch( SQLException e ){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
+        ArrayList<Table> tables = DBUtil.getAllTables( restaurantID, Table::tableFromResultSet ); 
         return tables.toArray( new Table[ tables.size() ] ); 
     }
 
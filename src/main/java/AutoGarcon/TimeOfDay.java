@@ -0,0 +1,125 @@
+package AutoGarcon;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * TimeOfDay: Gives the current time of day as a 24 hour time int, i.e. 2:30 PM = 1430.
+ *
+ * The time of day only changes once a minute, so each zone keeps the
+ * current minute and its time int, and a call only compares the clock
+ * against the end of that minute. The time is worked out again, with the
+ * zone's offset at that moment, once the minute is over, so a call
+ * allocates nothing except for the first call in a new minute.
+ */
+public class TimeOfDay {
+
+    private static final long MS_PER_MINUTE = 60 * 1000L;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final ZoneId SERVER_ZONE = ZoneId.systemDefault();
+    private static volatile Minute serverMinute = new Minute( SERVER_ZONE, System.currentTimeMillis() );
+
+    private static final Map<ZoneId, Minute> minutes = new ConcurrentHashMap<ZoneId, Minute>();
+    private static final Map<String, ZoneId> zones = new ConcurrentHashMap<String, ZoneId>();
+
+    /**
+     * now: the current time of day in the server's time zone.
+     * @return the time as a 24 hour time int.
+     */
+    public static int now(){
+        long millis = System.currentTimeMillis();
+        Minute minute = serverMinute;
+        if( !minute.contains( millis ) ){
+            minute = new Minute( SERVER_ZONE, millis );
+            serverMinute = minute;
+        }
+        return minute.time;
+    }
+
+    /**
+     * now: the current time of day in a time zone.
+     * @param zone - the zone to give the time in.
+     * @return the time as a 24 hour time int.
+     */
+    public static int now( ZoneId zone ){
+        if( zone == null || zone.equals( SERVER_ZONE ) ){
+            return now();
+        }
+        long millis = System.currentTimeMillis();
+        Minute minute = minutes.get( zone );
+        if( minute == null || !minute.contains( millis ) ){
+            minute = new Minute( zone, millis );
+            minutes.put( zone, minute );
+        }
+        return minute.time;
+    }
+
+    /**
+     * zone: look up a time zone by its id, i.e. "America/Chicago".
+     * Ids are parsed once and then reused.
+     * @param zoneID - the zone's id, or null.
+     * @return the zone, or the server's zone if the id is null or unknown.
+     */
+    public static ZoneId zone( String zoneID ){
+        if( zoneID == null || zoneID.isEmpty() ){
+            return SERVER_ZONE;
+        }
+        ZoneId zone = zones.get( zoneID );
+        if( zone == null ){
+            try {
+                zone = ZoneId.of( zoneID );
+            } catch( DateTimeException e ){
+                System.out.printf("Unknown time zone %s, using the server's zone.\n" + 
+                        "Exception: %s\n", zoneID, e.toString() );
+                zone = SERVER_ZONE;
+            }
+            zones.put( zoneID, zone );
+        }
+        return zone;
+    }
+
+    /**
+     * isValidZone: check if a time zone id can be used.
+     * @param zoneID - the zone's id, or null for the server's zone.
+     * @return true if the id is null, empty, or a known zone.
+     */
+    public static boolean isValidZone( String zoneID ){
+        if( zoneID == null || zoneID.isEmpty() ){
+            return true;
+        }
+        try {
+            ZoneId.of( zoneID );
+            return true;
+        } catch( DateTimeException e ){
+            return false;
+        }
+    }
+
+
+    /**
+     * Minute: one minute of the clock and the time of day during it in a zone.
+     * Instances never change, so they can be shared between threads without locking.
+     */
+    private static class Minute {
+        final long start;
+        final long end;
+        final int time;
+
+        Minute( ZoneId zone, long millis ){
+            this.start = Math.floorDiv( millis, MS_PER_MINUTE ) * MS_PER_MINUTE;
+            this.end = this.start + MS_PER_MINUTE;
+
+            long offsetMinutes = zone.getRules().getOffset( Instant.ofEpochMilli( millis ) ).getTotalSeconds() / 60;
+            int minuteOfDay = (int) Math.floorMod( this.start / MS_PER_MINUTE + offsetMinutes, (long) MINUTES_PER_DAY );
+            this.time = ( minuteOfDay / 60 ) * 100 + minuteOfDay % 60;
+        }
+
+        boolean contains( long millis ){
+            return millis >= this.start && millis < this.end;
+        }
+    }
+}
@@ -42,23 +42,7 @@ public class TimeRange {
 
 
     public static TimeRange[] timeRanges( int menuID ){
-        ResultSet times = DBUtil.getMenuTimes( menuID ); 
-        ArrayList<TimeRange> list = new ArrayList<TimeRange>(); 
-        boolean hasResult; 
-
-        try{ 
-            hasResult = times.next();
-
-            while(hasResult){
-                TimeRange tr = new TimeRange( times );  
-                list.add( tr ); 
-                hasResult = times.next(); 
-            }
-        }
-        catch( SQLException e){
-            System.out.printf("Failed to get next row in result set.\n" + 
-                    "Exception: %s\n", e.toString() );
-        }
+        ArrayList<TimeRange> list = DBUtil.getMenuTimes( menuID, TimeRange::new ); 
         return list.toArray( new TimeRange[ list.size() ] ); 
     }
 
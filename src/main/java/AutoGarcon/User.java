@@ -67,7 +67,7 @@ public class User {
 
     public static User userFromJson( String body ) {
 
-        Gson gson = new Gson();
+        Gson gson = JsonTransformer.gson();
         User user = new User();
 
         try {
@@ -0,0 +1,368 @@
+package AutoGarcon;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+
+/**
+ * FakeDatabase: Stands in for MySQL in tests.
+ *
+ * Hands out connections whose stored procedure calls are answered from
+ * rows set up by the test, so DBUtil can be exercised through a real
+ * ConnectionPool without a database. Procedures the test did not set up
+ * fail the way an undefined procedure does.
+ * Calls and commits can be slowed down to stand in for the network.
+ */
+class FakeDatabase implements ConnectionPool.ConnectionFactory {
+
+    private final Map<String, Function<Map<String, Object>, List<Map<String, Object>>>> answers =
+        new ConcurrentHashMap<String, Function<Map<String, Object>, List<Map<String, Object>>>>();
+    private final List<String> calls = Collections.synchronizedList( new ArrayList<String>() );
+    private final List<String> commits = Collections.synchronizedList( new ArrayList<String>() );
+    private volatile long roundTripNanos;
+
+    /**
+     * install: make DBUtil borrow its connections from a pool over this database.
+     */
+    FakeDatabase install(){
+        DBUtil.usePool( new ConnectionPool( this, 0, 8, 1000, 60000, 0 ) );
+        return this;
+    }
+
+    /**
+     * install: make DBUtil borrow its connections from a smaller pool over this database.
+     * @return the pool, so the test can hold its connections.
+     */
+    ConnectionPool install( int maxSize, long acquireTimeoutMs ){
+        ConnectionPool pool = new ConnectionPool( this, 0, maxSize, acquireTimeoutMs, 60000, 0 );
+        DBUtil.usePool( pool );
+        return pool;
+    }
+
+    /**
+     * rows: answer every call to a procedure with the same rows.
+     */
+    FakeDatabase rows( String procedure, List<Map<String, Object>> rows ){
+        this.answers.put( procedure, params -> rows );
+        return this;
+    }
+
+    /**
+     * answer: answer calls to a procedure from the parameters they were called with.
+     * An answer that throws fails the call, like a procedure that signals an error.
+     */
+    FakeDatabase answer( String procedure, Function<Map<String, Object>, List<Map<String, Object>>> answer ){
+        this.answers.put( procedure, answer );
+        return this;
+    }
+
+    /**
+     * roundTrip: how long every call and commit takes, like a trip to a real database.
+     */
+    FakeDatabase roundTrip( long micros ){
+        this.roundTripNanos = TimeUnit.MICROSECONDS.toNanos( micros );
+        return this;
+    }
+
+    private void travel(){
+        long until = System.nanoTime() + this.roundTripNanos;
+        while( this.roundTripNanos > 0 && System.nanoTime() < until ){
+            LockSupport.parkNanos( until - System.nanoTime() );
+        }
+    }
+
+    /**
+     * calls: the procedures called so far, in order.
+     */
+    List<String> calls(){
+        synchronized( this.calls ){
+            return new ArrayList<String>( this.calls );
+        }
+    }
+
+    /**
+     * row: build a row from alternating column names and values.
+     */
+    static Map<String, Object> row( Object... columnsAndValues ){
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        for( int i = 0; i < columnsAndValues.length; i += 2 ){
+            row.put( (String) columnsAndValues[i], columnsAndValues[i + 1] );
+        }
+        return row;
+    }
+
+    @Override
+    public Connection open(){
+        return (Connection) Proxy.newProxyInstance( Connection.class.getClassLoader(),
+                new Class<?>[]{ Connection.class }, new FakeConnection() );
+    }
+
+    private static Object defaultFor( Class<?> type ){
+        if( type == boolean.class ){
+            return false;
+        } else if( type == int.class ){
+            return 0;
+        } else if( type == long.class ){
+            return 0L;
+        } else if( type == void.class || !type.isPrimitive() ){
+            return null;
+        }
+        return 0;
+    }
+
+    private static String procedureName( String sql ){
+        String call = sql.replace( "{", "" ).trim();
+        if( call.startsWith("call ") ){
+            call = call.substring( 5 ).trim();
+        }
+        int paren = call.indexOf('(');
+        return paren < 0 ? call : call.substring( 0, paren ).trim();
+    }
+
+
+    private class FakeConnection implements InvocationHandler {
+        private boolean autoCommit = true;
+        private boolean closed;
+        private final List<String> pending = new ArrayList<String>();
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            switch( method.getName() ){
+                case "prepareCall":
+                case "prepareStatement":
+                    return Proxy.newProxyInstance( CallableStatement.class.getClassLoader(),
+                            new Class<?>[]{ CallableStatement.class },
+                            new FakeStatement( this, procedureName( (String) args[0] ) ) );
+                case "getAutoCommit":
+                    return this.autoCommit;
+                case "setAutoCommit":
+                    this.autoCommit = (Boolean) args[0];
+                    return null;
+                case "commit":
+                    travel();
+                    synchronized( this.pending ){
+                        commits.addAll( this.pending );
+                        this.pending.clear();
+                    }
+                    return null;
+                case "rollback":
+                    synchronized( this.pending ){
+                        this.pending.clear();
+                    }
+                    return null;
+                case "isValid":
+                    return !this.closed;
+                case "isClosed":
+                    return this.closed;
+                case "close":
+                    this.closed = true;
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                default:
+                    return defaultFor( method.getReturnType() );
+            }
+        }
+    }
+
+
+    private class FakeStatement implements InvocationHandler {
+        private final FakeConnection connection;
+        private final String procedure;
+        private final Map<String, Object> params = new HashMap<String, Object>();
+        private final List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+        private ResultSet resultSet;
+
+        FakeStatement( FakeConnection connection, String procedure ){
+            this.connection = connection;
+            this.procedure = procedure;
+        }
+
+        private ResultSet run( Map<String, Object> bound ) throws SQLException {
+            travel();
+            calls.add( this.procedure );
+            Function<Map<String, Object>, List<Map<String, Object>>> answer = answers.get( this.procedure );
+            if( answer == null ){
+                throw new SQLException( "PROCEDURE AutoGarcon." + this.procedure + " does not exist", "42000", 1305 );
+            }
+            List<Map<String, Object>> rows;
+            try {
+                rows = answer.apply( bound );
+            } catch( RuntimeException e ){
+                throw new SQLException( e.getMessage(), "45000", 1644, e );
+            }
+            if( this.connection.autoCommit ){
+                commits.add( this.procedure );
+            } else {
+                synchronized( this.connection.pending ){
+                    this.connection.pending.add( this.procedure );
+                }
+            }
+            return resultSet( rows );
+        }
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            if( name.startsWith("set") && args != null && args.length >= 2 ){
+                this.params.put( String.valueOf( args[0] ), args[1] );
+                return null;
+            }
+            switch( name ){
+                case "executeQuery":
+                    this.resultSet = run( new HashMap<String, Object>( this.params ) );
+                    return this.resultSet;
+                case "execute":
+                    this.resultSet = run( new HashMap<String, Object>( this.params ) );
+                    return true;
+                case "executeUpdate":
+                    run( new HashMap<String, Object>( this.params ) );
+                    return 1;
+                case "getResultSet":
+                    return this.resultSet;
+                case "getMoreResults":
+                    return false;
+                case "addBatch":
+                    this.batch.add( new HashMap<String, Object>( this.params ) );
+                    return null;
+                case "executeBatch":
+                    int[] counts = new int[ this.batch.size() ];
+                    for( int i = 0; i < counts.length; i++ ){
+                        run( this.batch.get(i) );
+                        counts[i] = 1;
+                    }
+                    this.batch.clear();
+                    return counts;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                default:
+                    return defaultFor( method.getReturnType() );
+            }
+        }
+    }
+
+
+    /**
+     * resultSet: a forward only result set over rows.
+     */
+    static ResultSet resultSet( List<Map<String, Object>> rows ){
+        List<String> columns = rows.isEmpty() ?
+            new ArrayList<String>() : new ArrayList<String>( rows.get(0).keySet() );
+
+        InvocationHandler metaData = ( proxy, method, args ) -> {
+            switch( method.getName() ){
+                case "getColumnCount":
+                    return columns.size();
+                case "getColumnName":
+                case "getColumnLabel":
+                    return columns.get( (Integer) args[0] - 1 );
+                case "getColumnType":
+                    return typeOf( rows.get(0).get( columns.get( (Integer) args[0] - 1 ) ) );
+                default:
+                    return defaultFor( method.getReturnType() );
+            }
+        };
+
+        InvocationHandler handler = new InvocationHandler(){
+            private int index = -1;
+            private boolean wasNull;
+
+            @Override
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+                String name = method.getName();
+                if( name.equals("next") ){
+                    this.index++;
+                    return this.index < rows.size();
+                }
+                if( name.equals("wasNull") ){
+                    return this.wasNull;
+                }
+                if( name.equals("getMetaData") ){
+                    return Proxy.newProxyInstance( ResultSetMetaData.class.getClassLoader(),
+                            new Class<?>[]{ ResultSetMetaData.class }, metaData );
+                }
+                if( name.startsWith("get") && args != null && args.length == 1 ){
+                    String column = args[0] instanceof Integer ?
+                        columns.get( (Integer) args[0] - 1 ) : (String) args[0];
+                    Map<String, Object> row = rows.get( this.index );
+                    if( !row.containsKey( column ) ){
+                        throw new SQLException( "Column '" + column + "' not found." );
+                    }
+                    Object value = row.get( column );
+                    this.wasNull = value == null;
+                    return convert( value, method.getReturnType() );
+                }
+                return defaultFor( method.getReturnType() );
+            }
+        };
+        return (ResultSet) Proxy.newProxyInstance( ResultSet.class.getClassLoader(),
+                new Class<?>[]{ ResultSet.class }, handler );
+    }
+
+    private static Object convert( Object value, Class<?> type ){
+        if( value == null ){
+            return defaultFor( type );
+        }
+        if( type == int.class ){
+            return value instanceof Boolean ? ( (Boolean) value ? 1 : 0 ) : ( (Number) value ).intValue();
+        } else if( type == long.class ){
+            return ( (Number) value ).longValue();
+        } else if( type == float.class ){
+            return ( (Number) value ).floatValue();
+        } else if( type == double.class ){
+            return ( (Number) value ).doubleValue();
+        } else if( type == boolean.class ){
+            return value instanceof Boolean ? value : ( (Number) value ).intValue() != 0;
+        } else if( type == String.class ){
+            return value.toString();
+        }
+        return value;
+    }
+
+    private static int typeOf( Object value ){
+        if( value instanceof Integer ){
+            return Types.INTEGER;
+        } else if( value instanceof Long ){
+            return Types.BIGINT;
+        } else if( value instanceof Double ){
+            return Types.DOUBLE;
+        } else if( value instanceof Float ){
+            return Types.FLOAT;
+        } else if( value instanceof Boolean ){
+            return Types.BOOLEAN;
+        } else if( value instanceof Timestamp ){
+            return Types.TIMESTAMP;
+        }
+        return Types.VARCHAR;
+    }
+
+    /**
+     * committed: the number of calls to a procedure that were committed.
+     */
+    int committed( String procedure ){
+        synchronized( this.commits ){
+            return Collections.frequency( this.commits, procedure );
+        }
+    }
+}
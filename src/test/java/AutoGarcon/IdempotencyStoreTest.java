@@ -0,0 +1,36 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * IdempotencyStoreTest: a key whose request is still running is never forgotten,
+ * remembered responses are forgotten oldest first once there are too many.
+ */
+public class IdempotencyStoreTest {
+
+    @After
+    public void forgetTheKeys(){
+        IdempotencyStore.reset();
+    }
+
+    @Test
+    public void runningKeysOutliveTheLimit(){
+        int limit = Integer.getInteger("IDEMPOTENCY_MAX_KEYS", 10000);
+        assertNull( IdempotencyStore.claim( "test|running" ) );
+
+        for( int i = 0; i <= limit; i++ ){
+            assertNull( IdempotencyStore.claim( "test|" + i ) );
+            IdempotencyStore.complete( "test|" + i, 202, "response " + i );
+        }
+
+        assertSame( IdempotencyStore.IN_PROGRESS, IdempotencyStore.claim( "test|running" ) );
+        assertEquals( "response " + limit, IdempotencyStore.claim( "test|" + limit ).getBody() );
+        //the oldest response was forgotten to stay within the limit, so it runs again.
+        assertNull( IdempotencyStore.claim( "test|0" ) );
+    }
+}
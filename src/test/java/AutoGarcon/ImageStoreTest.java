@@ -0,0 +1,46 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+
+/**
+ * ImageStoreTest: uploads are stored with the extension of their type,
+ * and only under names that stay inside the image folder.
+ */
+public class ImageStoreTest {
+
+    @Test
+    public void theTypeIsToldFromTheBytes(){
+        assertEquals( ".jpg", extension( 0xFF, 0xD8, 0xFF, 0xE0 ) );
+        assertEquals( ".png", extension( 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A ) );
+        assertEquals( ".gif", extension( 'G', 'I', 'F', '8', '9', 'a' ) );
+        assertEquals( ".webp", extension( 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P' ) );
+        assertNull( extension( 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'A', 'V', 'E' ) );
+        assertNull( extension( 0xFF ) );
+    }
+
+    @Test
+    public void namesStayInTheImageFolder(){
+        assertTrue( ImageStore.isSafeReference( "menuitem.403.jpg" ) );
+        assertTrue( ImageStore.isSafeReference( "12/403" ) );
+        assertFalse( ImageStore.isSafeReference( null ) );
+        assertFalse( ImageStore.isSafeReference( "../Main.class" ) );
+        assertFalse( ImageStore.isSafeReference( "12/../../403" ) );
+        assertFalse( ImageStore.isSafeReference( "/etc/passwd" ) );
+        assertFalse( ImageStore.isSafeReference( "12/" ) );
+    }
+
+    private static String extension( int... bytes ){
+        ByteBuffer header = ByteBuffer.allocate( bytes.length );
+        for( int b : bytes ){
+            header.put( (byte) b );
+        }
+        header.flip();
+        return ImageStore.extensionOf( header );
+    }
+}
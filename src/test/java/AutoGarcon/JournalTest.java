@@ -0,0 +1,69 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * JournalTest: records appended, synced and rewritten are all read back.
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Journal open( File dir, String name ) throws Exception {
+        System.setProperty( "JOURNAL_DIR", dir.getPath() );
+        try {
+            return new Journal( name );
+        } finally {
+            System.clearProperty( "JOURNAL_DIR" );
+        }
+    }
+
+    @Test
+    public void syncedAndRewrittenRecordsAreReplayed() throws Exception {
+        File dir = this.folder.newFolder();
+        Journal journal = open( dir, "test" );
+        journal.replay( record -> {} );
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for( int t = 0; t < 4; t++ ){
+            int thread = t;
+            threads.add( new Thread( () -> {
+                try {
+                    for( int i = 0; i < 100; i++ ){
+                        journal.append( "old " + thread + " " + i );
+                        journal.sync();
+                    }
+                } catch( Exception e ){
+                    throw new RuntimeException( e );
+                }
+            }));
+        }
+        for( Thread thread : threads ){
+            thread.start();
+        }
+        for( Thread thread : threads ){
+            thread.join();
+        }
+        assertEquals( 400, journal.getRecordCount() );
+
+        journal.rewrite( Arrays.asList( "a", "b" ) );
+        journal.append( "c" );
+        journal.sync();
+        journal.close();
+
+        List<String> replayed = new ArrayList<String>();
+        Journal reopened = open( dir, "test" );
+        reopened.replay( replayed::add );
+        reopened.close();
+        assertEquals( Arrays.asList( "a", "b", "c" ), replayed );
+    }
+}
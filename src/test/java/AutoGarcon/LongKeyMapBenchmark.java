@@ -0,0 +1,136 @@
+package AutoGarcon;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * LongKeyMapBenchmark: looking up and replacing a table's open order in
+ * LongKeyMap, against the HashMap keyed by UniqueTable that OrderTracker
+ * used before, and a ConcurrentHashMap with the same keys, the nearest
+ * thread safe version of it.
+ *
+ * Every lookup builds its key from a restaurantID and table number,
+ * the way a request does, so the UniqueTable allocation is measured too.
+ * The contended benchmarks leave out HashMap, it is not thread safe.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench=LongKeyMapBenchmark
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class LongKeyMapBenchmark {
+
+    @Param({ "100", "10000" })
+    public int restaurants;
+
+    private static final int TABLES = 20;
+
+    private LongKeyMap<Order> longKeyMap;
+    private Map<UniqueTable, Order> hashMap;
+    private Map<UniqueTable, Order> concurrentMap;
+    private Order order;
+
+    @Setup
+    public void setup(){
+        this.longKeyMap = new LongKeyMap<Order>();
+        this.hashMap = new HashMap<UniqueTable, Order>();
+        this.concurrentMap = new ConcurrentHashMap<UniqueTable, Order>();
+        this.order = new Order();
+        for( int r = 0; r < this.restaurants; r++ ){
+            for( int t = 0; t < TABLES; t++ ){
+                this.longKeyMap.put( OrderTracker.key( r, t ), this.order );
+                this.hashMap.put( new UniqueTable( r, t ), this.order );
+                this.concurrentMap.put( new UniqueTable( r, t ), this.order );
+            }
+        }
+    }
+
+    /**
+     * Cursor: walks each thread through the tables in its own order.
+     */
+    @State( Scope.Thread )
+    public static class Cursor {
+        private int next;
+
+        int restaurant( int restaurants ){
+            this.next = this.next * 1103515245 + 12345;
+            return ( this.next >>> 1 ) % restaurants;
+        }
+
+        int table(){
+            return ( this.next >>> 8 ) % TABLES;
+        }
+    }
+
+    @Benchmark
+    public Order getLongKeyMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.longKeyMap.get( OrderTracker.key( r, cursor.table() ) );
+    }
+
+    @Benchmark
+    public Order getHashMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.hashMap.get( new UniqueTable( r, cursor.table() ) );
+    }
+
+    @Benchmark
+    public Order getConcurrentHashMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.concurrentMap.get( new UniqueTable( r, cursor.table() ) );
+    }
+
+    @Benchmark
+    public Order putLongKeyMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.longKeyMap.put( OrderTracker.key( r, cursor.table() ), this.order );
+    }
+
+    @Benchmark
+    public Order putHashMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.hashMap.put( new UniqueTable( r, cursor.table() ), this.order );
+    }
+
+    @Benchmark
+    public Order putConcurrentHashMap( Cursor cursor ){
+        int r = cursor.restaurant( this.restaurants );
+        return this.concurrentMap.put( new UniqueTable( r, cursor.table() ), this.order );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public void contendedLongKeyMap( Cursor cursor, Blackhole bh ){
+        int r = cursor.restaurant( this.restaurants );
+        long key = OrderTracker.key( r, cursor.table() );
+        bh.consume( this.longKeyMap.get( key ) );
+        bh.consume( this.longKeyMap.computeIfPresent( key, current -> current ) );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public void contendedConcurrentHashMap( Cursor cursor, Blackhole bh ){
+        int r = cursor.restaurant( this.restaurants );
+        UniqueTable key = new UniqueTable( r, cursor.table() );
+        bh.consume( this.concurrentMap.get( key ) );
+        bh.consume( this.concurrentMap.computeIfPresent( key, ( k, current ) -> current ) );
+    }
+}
@@ -0,0 +1,93 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+
+/**
+ * OrderHydrationRoundTripTest: counts the database round trips it takes to
+ * load a restaurant's orders, loading each order's items on its own
+ * versus loading them all with GetOrderItemsByRestaurant.
+ */
+public class OrderHydrationRoundTripTest {
+
+    private static final int ORDERS = 50;
+    private static final int ITEMS_PER_ORDER = 3;
+
+    /**
+     * database: a restaurant with ORDERS orders of ITEMS_PER_ORDER items,
+     * answered one order at a time, and in bulk if bulk is set.
+     */
+    private static FakeDatabase database( int restaurantID, int firstItemID, boolean bulk ){
+        List<Map<String, Object>> orders = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> allItems = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> names = new ArrayList<Map<String, Object>>();
+        for( int o = 1; o <= ORDERS; o++ ){
+            orders.add( FakeDatabase.row( "orderID", o, "tableID", o % 10, "userID", 3,
+                    "orderTime", new Timestamp( 0 ), "orderStatus", 1, "chargeAmount", 12.5f ) );
+            for( int i = 0; i < ITEMS_PER_ORDER; i++ ){
+                int itemID = firstItemID + ( o * ITEMS_PER_ORDER + i ) % 40;
+                allItems.add( FakeDatabase.row( "orderID", o, "orderItemID", o * 100 + i, "itemID", itemID,
+                        "quantity", 1, "comments", "", "price", 4.0f ) );
+            }
+        }
+        for( int id = firstItemID; id < firstItemID + 40; id++ ){
+            names.add( FakeDatabase.row( "menuID", 1, "itemID", id, "itemName", "item " + id ) );
+        }
+
+        FakeDatabase db = new FakeDatabase()
+            .rows( "GetOrdersForRestaurant", orders )
+            .answer( "GetAllOrderItemsFromOrder", params -> {
+                List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+                for( Map<String, Object> item : allItems ){
+                    if( item.get("orderID").equals( params.get("myOrderID") ) ){
+                        rows.add( item );
+                    }
+                }
+                return rows;
+            })
+            .answer( "GetMenuItembyItemId", params -> {
+                List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+                rows.add( FakeDatabase.row( "itemName", "item " + params.get("id") ) );
+                return rows;
+            });
+        if( bulk ){
+            db.rows( "GetOrderItemsByRestaurant", allItems ).rows( "GetMenuItemsByRestaurant", names );
+        }
+        return db.install();
+    }
+
+    private static int roundTrips( FakeDatabase db, int restaurantID ){
+        int before = db.calls().size();
+        ArrayList<Order> orders = Order.allOrdersForRestaurant( restaurantID );
+        int trips = db.calls().size() - before;
+
+        assertEquals( ORDERS, orders.size() );
+        for( Order order : orders ){
+            assertEquals( ITEMS_PER_ORDER, order.getOrderItems().size() );
+            for( OrderItem item : order.getOrderItems() ){
+                assertEquals( "item " + item.getMenuItemID(), item.getItemName() );
+            }
+        }
+        return trips;
+    }
+
+    @Test
+    public void bulkLoadingTakesAFixedNumberOfRoundTrips(){
+        int perOrder = roundTrips( database( 7, 1000, false ), 7 );
+        int bulk = roundTrips( database( 8, 5000, true ), 8 );
+
+        System.out.printf("Round trips to load %d orders of %d items: %d one order at a time, %d in bulk.\n",
+                ORDERS, ITEMS_PER_ORDER, perOrder, bulk );
+
+        //the orders, one call per order for its items, and one per distinct item name.
+        assertTrue( "per order loading took " + perOrder, perOrder >= 1 + ORDERS );
+        //the orders, the item names and the items.
+        assertEquals( 3, bulk );
+    }
+}
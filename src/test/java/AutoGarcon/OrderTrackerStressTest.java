@@ -0,0 +1,144 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+/**
+ * OrderTrackerStressTest: many threads add items to, remove items from and
+ * submit the orders at a few tables at once, then every item is accounted for.
+ *
+ * Each worker adds a kept item and a spare item, then removes one spare item.
+ * Kept items are never removed, so every kept item that was added must end up
+ * in exactly one order, either one that was submitted or one still open.
+ */
+public class OrderTrackerStressTest {
+
+    private static final int RESTAURANT = 9001;
+    private static final int TABLES = 4;
+    private static final int WORKERS = 8;
+    private static final int SUBMITTERS = 2;
+    private static final int ROUNDS = 5000;
+
+    private static final int KEPT = 1;
+    private static final int SPARE = 2;
+
+    static {
+        //the tracker is a singleton, keep it off the disk before anything creates it.
+        System.setProperty( "ORDER_JOURNAL", "false" );
+    }
+
+    @Test
+    public void noItemsAreLost() throws Exception {
+        OrderTracker tracker = OrderTracker.getInstance();
+        for( int table = 0; table < TABLES; table++ ){
+            tracker.restoreOrder( RESTAURANT, table, new Order() );
+        }
+
+        ConcurrentLinkedQueue<OrderItem> keptAdded = new ConcurrentLinkedQueue<OrderItem>();
+        ConcurrentLinkedQueue<Order> submitted = new ConcurrentLinkedQueue<Order>();
+        //how many items each order had when it was taken, nothing may be added after.
+        Map<Order, Integer> sizeWhenTaken = Collections.synchronizedMap( new IdentityHashMap<Order, Integer>() );
+
+        ExecutorService pool = Executors.newFixedThreadPool( WORKERS + SUBMITTERS );
+        CountDownLatch start = new CountDownLatch( 1 );
+        CountDownLatch workersDone = new CountDownLatch( WORKERS );
+        List<Future<?>> results = new ArrayList<Future<?>>();
+
+        for( int w = 0; w < WORKERS; w++ ){
+            results.add( pool.submit( () -> {
+                start.await();
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for( int i = 0; i < ROUNDS; i++ ){
+                        int table = random.nextInt( TABLES );
+                        OrderItem kept = item( KEPT );
+                        if( tracker.addOrderItem( RESTAURANT, table, kept ) ){
+                            keptAdded.add( kept );
+                        }
+                        tracker.addOrderItem( RESTAURANT, table, item( SPARE ) );
+                        tracker.removeMenuItemFromOrder( RESTAURANT, table, SPARE );
+                    }
+                } finally {
+                    workersDone.countDown();
+                }
+                return null;
+            }));
+        }
+
+        for( int s = 0; s < SUBMITTERS; s++ ){
+            results.add( pool.submit( () -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while( workersDone.getCount() > 0 ){
+                    int table = random.nextInt( TABLES );
+                    Order order = tracker.takeOrder( RESTAURANT, table );
+                    if( order != null ){
+                        sizeWhenTaken.put( order, order.getOrderItems().size() );
+                        submitted.add( order );
+                    }
+                    tracker.restoreOrder( RESTAURANT, table, new Order() );
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for( Future<?> result : results ){
+            result.get( 60, TimeUnit.SECONDS );
+        }
+        pool.shutdown();
+
+        List<Order> everyOrder = new ArrayList<Order>( submitted );
+        for( int table = 0; table < TABLES; table++ ){
+            Order open = tracker.takeOrder( RESTAURANT, table );
+            if( open != null ){
+                everyOrder.add( open );
+            }
+        }
+
+        for( Order order : submitted ){
+            assertEquals( "items were added to an order after it was submitted",
+                    (int) sizeWhenTaken.get( order ), order.getOrderItems().size() );
+        }
+
+        Set<OrderItem> seen = Collections.newSetFromMap( new IdentityHashMap<OrderItem, Boolean>() );
+        int keptFound = 0;
+        for( Order order : everyOrder ){
+            for( OrderItem item : order.getOrderItems() ){
+                assertTrue( "an item is in two orders", seen.add( item ) );
+                if( item.getMenuItemID() == KEPT ){
+                    keptFound++;
+                }
+            }
+        }
+
+        assertTrue( "no items were submitted, the submitters never ran", submitted.size() > 0 );
+        for( OrderItem kept : keptAdded ){
+            assertTrue( "an added item was lost", seen.contains( kept ) );
+        }
+        assertEquals( keptAdded.size(), keptFound );
+    }
+
+    private static OrderItem item( int menuItemID ){
+        OrderItem item = new OrderItem();
+        item.setMenuItemID( menuItemID );
+        item.setMenuID( 1 );
+        item.setQuantity( 1 );
+        return item;
+    }
+}
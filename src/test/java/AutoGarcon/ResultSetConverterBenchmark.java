@@ -0,0 +1,92 @@
+package AutoGarcon;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * ResultSetConverterBenchmark: writing a result set out as JSON with convert,
+ * which builds a JSONArray and then serializes it, against stream,
+ * which writes each row as it is read.
+ *
+ * Both read the same fake result set of order item rows and write to a
+ * stream that only counts bytes, so the difference is the conversion.
+ * Use -prof gc to see the allocation difference as well.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench=ResultSetConverterBenchmark
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ResultSetConverterBenchmark {
+
+    @Param({ "100", "10000" })
+    public int rows;
+
+    private List<Map<String, Object>> data;
+
+    @Setup
+    public void setup(){
+        this.data = new ArrayList<Map<String, Object>>();
+        for( int i = 0; i < this.rows; i++ ){
+            this.data.add( FakeDatabase.row( "orderID", i / 3, "orderItemID", i, "itemID", i % 40,
+                    "quantity", 1 + i % 3, "comments", "no onions", "price", 4.25,
+                    "orderTime", new Timestamp( 1600000000000L + i ) ) );
+        }
+    }
+
+    /**
+     * Counter: an output stream that throws the bytes away and counts them.
+     */
+    private static class Counter extends OutputStream {
+        long count;
+
+        @Override
+        public void write( int b ){
+            this.count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ){
+            this.count += len;
+        }
+    }
+
+    @Benchmark
+    public long convert() throws Exception {
+        Counter out = new Counter();
+        JSONArray json = ResultSetConverter.convert( FakeDatabase.resultSet( this.data ) );
+        BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+        json.writeJSONString( writer );
+        writer.flush();
+        return out.count;
+    }
+
+    @Benchmark
+    public long stream() throws Exception {
+        Counter out = new Counter();
+        ResultSetConverter.stream( FakeDatabase.resultSet( this.data ), out );
+        return out.count;
+    }
+}
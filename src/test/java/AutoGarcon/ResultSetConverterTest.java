@@ -0,0 +1,77 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+
+/**
+ * ResultSetConverterTest: rows are streamed as JSON, including the values JSON can not hold.
+ */
+public class ResultSetConverterTest {
+
+    private static String stream( List<Map<String, Object>> rows ) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultSetConverter.stream( FakeDatabase.resultSet( rows ), out );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    @Test
+    public void nonFiniteNumbersAreWrittenAsNull() throws Exception {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        rows.add( FakeDatabase.row( "id", 1, "price", 4.5, "name", "soup" ) );
+        rows.add( FakeDatabase.row( "id", 2, "price", Double.NaN, "name", null ) );
+        rows.add( FakeDatabase.row( "id", 3, "price", Double.POSITIVE_INFINITY, "name", "tea" ) );
+
+        assertEquals( "[{\"id\":1,\"price\":4.5,\"name\":\"soup\"}," +
+                "{\"id\":2,\"price\":null,\"name\":null}," +
+                "{\"id\":3,\"price\":null,\"name\":\"tea\"}]", stream( rows ) );
+    }
+
+    @Test
+    public void exportReadsTheRestaurantsOrderItemsAPageAtATime() throws Exception {
+        List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+        for( int i = 1; i <= 5; i++ ){
+            items.add( FakeDatabase.row( "orderID", 1, "orderItemID", 10 * i, "itemID", 7, "quantity", 2, "comments", "", "price", 3.0 ) );
+        }
+        FakeDatabase db = new FakeDatabase()
+            .answer( "GetOrderItemsPage", params -> {
+                List<Map<String, Object>> page = new ArrayList<Map<String, Object>>();
+                for( Map<String, Object> item : items ){
+                    if( (Integer) item.get("orderItemID") > (Long) params.get("afterItemID") &&
+                            page.size() < (Integer) params.get("pageSize") ){
+                        page.add( item );
+                    }
+                }
+                return page;
+            })
+            .install();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue( DBUtil.exportOrderItems( 9, out, 2 ) );
+
+        StringBuilder expected = new StringBuilder( "[" );
+        for( int i = 1; i <= 5; i++ ){
+            expected.append( i > 1 ? "," : "" ).append( "{\"orderID\":1,\"orderItemID\":" ).append( 10 * i )
+                .append( ",\"itemID\":7,\"quantity\":2,\"comments\":\"\",\"price\":3.0}" );
+        }
+        expected.append( "]" );
+        assertEquals( expected.toString(), new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+        //pages of 2, 2 and 1, then an empty one.
+        assertEquals( 4, db.calls().size() );
+    }
+
+    @Test
+    public void anEmptyExportIsAnEmptyArray() throws Exception {
+        new FakeDatabase().rows( "GetOrderItemsPage", new ArrayList<Map<String, Object>>() ).install();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue( DBUtil.exportOrderItems( 9, out ) );
+        assertEquals( "[]", new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+}
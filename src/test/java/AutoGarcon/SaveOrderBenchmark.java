@@ -0,0 +1,58 @@
+package AutoGarcon;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * SaveOrderBenchmark: how long it takes to commit an order, by item count.
+ *
+ * saveOrders makes one call to create the order, one to add its items, one
+ * to complete it and one commit, or with bulkItems off, as when
+ * sql/05_order_item_bulk_saving.sql is not installed, one call per item.
+ * Each call waits roundTripMicros, the time a trip to the database takes,
+ * so the numbers show how commit latency grows with the items in an order.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench=SaveOrderBenchmark
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class SaveOrderBenchmark {
+
+    @Param({ "1", "5", "10", "20" })
+    public int items;
+
+    @Param({ "0", "500" })
+    public long roundTripMicros;
+
+    @Param({ "true", "false" })
+    public boolean bulkItems;
+
+    private Order order;
+
+    @Setup
+    public void setup(){
+        SaveOrdersTest.database( -1, this.bulkItems ).install().roundTrip( this.roundTripMicros );
+        this.order = SaveOrdersTest.order( this.items, 1 );
+    }
+
+    @Benchmark
+    public int saveOrder() throws Exception {
+        DBUtil.saveOrders( Arrays.asList( this.order ) );
+        return this.order.getOrderID();
+    }
+}
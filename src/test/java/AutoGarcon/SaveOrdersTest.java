@@ -0,0 +1,160 @@
+package AutoGarcon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+
+/**
+ * SaveOrdersTest: orders are saved in one transaction, all of them or none.
+ */
+public class SaveOrdersTest {
+
+    /**
+     * database: answers the procedures saveOrders calls, AddItemsToOrder
+     * and AddItemToOrder fail for the menu item failItemID.
+     */
+    static FakeDatabase database( int failItemID ){
+        return database( failItemID, true ).install();
+    }
+
+    /**
+     * database: the same, without AddItemsToOrder unless bulkItems is set,
+     * not yet installed.
+     */
+    static FakeDatabase database( int failItemID, boolean bulkItems ){
+        AtomicInteger orderIDs = new AtomicInteger( 100 );
+        List<Map<String, Object>> none = new ArrayList<Map<String, Object>>();
+        Map<Object, Object> handles = new ConcurrentHashMap<Object, Object>();
+        FakeDatabase db = new FakeDatabase()
+            .answer( "GetOrderBySubmission", params -> handles.containsKey( params.get("handle") ) ?
+                    Arrays.asList( FakeDatabase.row( "orderID", handles.get( params.get("handle") ) ) ) : none )
+            .answer( "SetOrderSubmission", params -> {
+                handles.put( params.get("handle"), params.get("oID") );
+                return none;
+            })
+            .answer( "CreateNewOrder", params -> Arrays.asList( FakeDatabase.row( "newOrderID", orderIDs.incrementAndGet() ) ) )
+            .answer( "AddItemToOrder", params -> {
+                if( params.get("menuItemIDToAdd").equals( failItemID ) ){
+                    throw new IllegalStateException( "menu item " + failItemID + " does not exist" );
+                }
+                return none;
+            })
+            .rows( "CompleteOrder", none );
+        if( bulkItems ){
+            db.answer( "AddItemsToOrder", params -> {
+                for( JsonElement item : new JsonParser().parse( (String) params.get("items") ).getAsJsonArray() ){
+                    if( item.getAsJsonObject().get("menuItemID").getAsInt() == failItemID ){
+                        throw new IllegalStateException( "menu item " + failItemID + " does not exist" );
+                    }
+                }
+                return none;
+            });
+        }
+        return db;
+    }
+
+    static Order order( int items, int firstItemID ){
+        Order order = new Order();
+        order.setTableID( 4 );
+        order.setCustomerID( 3 );
+        for( int i = 0; i < items; i++ ){
+            OrderItem item = new OrderItem();
+            item.setMenuItemID( firstItemID + i );
+            item.setMenuID( 1 );
+            item.setQuantity( 1 );
+            order.addOrderItem( item );
+        }
+        return order;
+    }
+
+    @Test
+    public void everyItemIsCommittedTogether() throws Exception {
+        FakeDatabase db = database( -1 );
+        Order order = order( 10, 1 );
+
+        assertTrue( DBUtil.saveOrder( order ) );
+        assertEquals( 1, db.committed( "AddItemsToOrder" ) );
+        assertEquals( 1, db.committed( "CompleteOrder" ) );
+        assertTrue( order.getOrderID() > 100 );
+    }
+
+    @Test
+    public void theItemsAreSentInOneCall() throws Exception {
+        FakeDatabase db = database( -1 );
+        DBUtil.saveOrders( Arrays.asList( order( 1, 1 ) ) );
+        int oneItem = db.calls().size();
+
+        db = database( -1 );
+        DBUtil.saveOrders( Arrays.asList( order( 20, 1 ) ) );
+        assertEquals( oneItem, db.calls().size() );
+        assertEquals( 0, db.committed( "AddItemToOrder" ) );
+    }
+
+    @Test
+    public void itemsAreSavedOneAtATimeWithoutTheBulkProcedure() throws Exception {
+        FakeDatabase db = database( -1, false ).install();
+        Order order = order( 10, 1 );
+
+        assertTrue( DBUtil.saveOrder( order ) );
+        assertEquals( 10, db.committed( "AddItemToOrder" ) );
+        assertEquals( 1, db.committed( "CreateNewOrder" ) );
+        assertEquals( 1, db.committed( "CompleteOrder" ) );
+    }
+
+    @Test
+    public void aSubmissionIsOnlySavedOnce() throws Exception {
+        FakeDatabase db = database( -1 );
+        Order first = order( 3, 1 );
+        first.setSubmissionHandle( "handle-1" );
+        DBUtil.saveOrders( Arrays.asList( first ) );
+
+        //the same submission queued again after a restart.
+        Order retried = order( 3, 1 );
+        retried.setSubmissionHandle( "handle-1" );
+        DBUtil.saveOrders( Arrays.asList( retried ) );
+
+        assertEquals( 1, db.committed( "CreateNewOrder" ) );
+        assertEquals( 1, db.committed( "AddItemsToOrder" ) );
+        assertEquals( first.getOrderID(), retried.getOrderID() );
+    }
+
+    @Test
+    public void aBusyPoolIsRetried() throws Exception {
+        FakeDatabase db = database( -1 );
+        ConnectionPool pool = db.install( 1, 50 );
+        try( Connection held = pool.borrow() ){
+            DBUtil.saveOrders( Arrays.asList( order( 3, 1 ) ) );
+            fail( "saved an order without a free connection" );
+        } catch( SQLException e ){
+            assertTrue( "a busy pool failed the order: " + e, SubmissionQueue.isTransient( e ) );
+        }
+        assertEquals( 0, db.committed( "CreateNewOrder" ) );
+
+        //once the connection is back the same order saves.
+        DBUtil.saveOrders( Arrays.asList( order( 3, 1 ) ) );
+        assertEquals( 1, db.committed( "CreateNewOrder" ) );
+    }
+
+    @Test
+    public void aFailedItemRollsBackTheOrder(){
+        FakeDatabase db = database( 5 );
+        Order order = order( 10, 1 );
+
+        assertFalse( DBUtil.saveOrder( order ) );
+        assertEquals( 0, db.committed( "CreateNewOrder" ) );
+        assertEquals( 0, db.committed( "AddItemsToOrder" ) );
+    }
+}
@@ -0,0 +1,79 @@
+package AutoGarcon;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * TimeOfDayBenchmark: TimeOfDay against the Date and Calendar version of
+ * Main.getCurrentTimestamp it replaced, which is copied here as it was.
+ *
+ * Run with: mvn -P bench test-compile exec:exec -Dbench=TimeOfDayBenchmark
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class TimeOfDayBenchmark {
+
+    private final ZoneId zone = ZoneId.of( "Pacific/Auckland" );
+
+    /**
+     * calendarTimestamp: Main.getCurrentTimestamp before TimeOfDay.
+     */
+    static int calendarTimestamp(){
+        Date currentTime = new Date();
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(currentTime);
+        String hour = String.valueOf(cal.get(Calendar.HOUR_OF_DAY));
+        String minute = "";
+        //check if need to prepend "0" to minute
+        if(cal.get(Calendar.MINUTE) > 10){
+            minute = String.valueOf(cal.get(Calendar.MINUTE));
+        } else {
+            minute = "0" + String.valueOf(cal.get(Calendar.MINUTE));
+        }
+        String timestamp = hour.concat(minute);
+        return Integer.parseInt(timestamp);
+    }
+
+    @Benchmark
+    public int calendar(){
+        return calendarTimestamp();
+    }
+
+    @Benchmark
+    public int timeOfDay(){
+        return TimeOfDay.now();
+    }
+
+    @Benchmark
+    public int timeOfDayInZone(){
+        return TimeOfDay.now( this.zone );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public int calendarContended(){
+        return calendarTimestamp();
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public int timeOfDayContended(){
+        return TimeOfDay.now();
+    }
+}
@@ -0,0 +1,29 @@
+package AutoGarcon;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import org.junit.Test;
+
+
+/**
+ * TimeOfDayTest: TimeOfDay agrees with java.time in zones with unusual offsets.
+ */
+public class TimeOfDayTest {
+
+    private static int hhmm( LocalTime time ){
+        return time.getHour() * 100 + time.getMinute();
+    }
+
+    @Test
+    public void matchesLocalTime(){
+        for( String id : new String[]{ "UTC", "America/Chicago", "Asia/Kolkata", "Asia/Kathmandu", "Pacific/Chatham" } ){
+            ZoneId zone = ZoneId.of( id );
+            int before = hhmm( LocalTime.now( zone ) );
+            int time = TimeOfDay.now( zone );
+            int after = hhmm( LocalTime.now( zone ) );
+            //the minute can turn over between the calls.
+            assertTrue( id + " gave " + time, time == before || time == after );
+        }
+    }
+}